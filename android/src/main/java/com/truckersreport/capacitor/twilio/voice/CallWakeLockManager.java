@@ -0,0 +1,202 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the wake locks used while a call is ringing or connected and keeps
+ * per-call accounting of how long they were held.
+ *
+ * A partial wake lock is held from invite receipt until the call rings or is
+ * accepted/rejected, always bounded by {@link #INVITE_WAKE_LOCK_TIMEOUT_MS}.
+ * While a call is connected a proximity wake lock is held instead so the
+ * screen turns off against the user's ear.
+ */
+public class CallWakeLockManager {
+
+    private static final String TAG = "CallWakeLockManager";
+    private static final String INVITE_WAKE_LOCK_TAG = "TwilioVoice:invite";
+    private static final String PROXIMITY_WAKE_LOCK_TAG = "TwilioVoice:proximity";
+
+    public static final long INVITE_WAKE_LOCK_TIMEOUT_MS = 30 * 1000;
+    private static final int MAX_TRACKED_CALLS = 20;
+
+    private static CallWakeLockManager instance;
+
+    private final PowerManager powerManager;
+    private PowerManager.WakeLock inviteWakeLock;
+    private PowerManager.WakeLock proximityWakeLock;
+    private String inviteCallSid;
+    private String proximityCallSid;
+    private long inviteAcquiredAt;
+    private long proximityAcquiredAt;
+
+    private final Map<String, CallStats> stats = new LinkedHashMap<String, CallStats>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CallStats> eldest) {
+            return size() > MAX_TRACKED_CALLS;
+        }
+    };
+
+    private CallWakeLockManager(Context context) {
+        this.powerManager = (PowerManager) context.getApplicationContext().getSystemService(Context.POWER_SERVICE);
+    }
+
+    public static synchronized CallWakeLockManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new CallWakeLockManager(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Acquire the partial wake lock for an incoming invite. Released by
+     * {@link #releaseInvite(String)} or automatically after the hard timeout.
+     * @param callSid
+     */
+    public synchronized void acquireInvite(String callSid) {
+        if (powerManager == null) {
+            return;
+        }
+        releaseInviteLocked();
+        inviteWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, INVITE_WAKE_LOCK_TAG);
+        inviteWakeLock.setReferenceCounted(false);
+        inviteWakeLock.acquire(INVITE_WAKE_LOCK_TIMEOUT_MS);
+        inviteCallSid = callSid;
+        inviteAcquiredAt = SystemClock.elapsedRealtime();
+        statsFor(callSid).wakeCount++;
+        VoiceLog.d(TAG, "Acquired invite wake lock");
+    }
+
+    /**
+     * Release the invite wake lock once the call rings or is answered/rejected.
+     * Does nothing if the lock is held for a different call.
+     * @param callSid
+     */
+    public synchronized void releaseInvite(String callSid) {
+        if (inviteCallSid != null && callSid != null && !inviteCallSid.equals(callSid)) {
+            return;
+        }
+        releaseInviteLocked();
+    }
+
+    /**
+     * Switch to a proximity wake lock while the call is connected.
+     * @param callSid
+     */
+    public synchronized void acquireProximity(String callSid) {
+        releaseInvite(callSid);
+        if (powerManager == null || !powerManager.isWakeLockLevelSupported(PowerManager.PROXIMITY_SCREEN_OFF_WAKE_LOCK)) {
+            return;
+        }
+        releaseProximityLocked();
+        proximityWakeLock = powerManager.newWakeLock(PowerManager.PROXIMITY_SCREEN_OFF_WAKE_LOCK, PROXIMITY_WAKE_LOCK_TAG);
+        proximityWakeLock.setReferenceCounted(false);
+        proximityWakeLock.acquire();
+        proximityCallSid = callSid;
+        proximityAcquiredAt = SystemClock.elapsedRealtime();
+        statsFor(callSid).wakeCount++;
+        VoiceLog.d(TAG, "Acquired proximity wake lock");
+    }
+
+    /**
+     * Release every wake lock held for the given call.
+     * @param callSid
+     */
+    public synchronized void releaseCall(String callSid) {
+        releaseInvite(callSid);
+        if (proximityCallSid != null && callSid != null && !proximityCallSid.equals(callSid)) {
+            return;
+        }
+        releaseProximityLocked();
+    }
+
+    public synchronized JSObject getStats() {
+        long now = SystemClock.elapsedRealtime();
+        JSArray calls = new JSArray();
+        long totalHeldMs = 0;
+        int totalWakeCount = 0;
+        for (Map.Entry<String, CallStats> entry : stats.entrySet()) {
+            CallStats callStats = entry.getValue();
+            long partialHeldMs = callStats.partialHeldMs;
+            long proximityHeldMs = callStats.proximityHeldMs;
+            if (inviteWakeLock != null && entry.getKey().equals(inviteCallSid)) {
+                partialHeldMs += inviteHeldMs(now);
+            }
+            if (proximityWakeLock != null && entry.getKey().equals(proximityCallSid)) {
+                proximityHeldMs += now - proximityAcquiredAt;
+            }
+            JSObject call = new JSObject();
+            call.put("callSid", entry.getKey());
+            call.put("wakeCount", callStats.wakeCount);
+            call.put("partialHeldMs", partialHeldMs);
+            call.put("proximityHeldMs", proximityHeldMs);
+            calls.put(call);
+            totalHeldMs += partialHeldMs + proximityHeldMs;
+            totalWakeCount += callStats.wakeCount;
+        }
+        JSObject ret = new JSObject();
+        ret.put("calls", calls);
+        ret.put("totalHeldMs", totalHeldMs);
+        ret.put("totalWakeCount", totalWakeCount);
+        ret.put("inviteWakeLockHeld", inviteWakeLock != null && inviteWakeLock.isHeld());
+        ret.put("proximityWakeLockHeld", proximityWakeLock != null && proximityWakeLock.isHeld());
+        return ret;
+    }
+
+    private void releaseInviteLocked() {
+        if (inviteWakeLock == null) {
+            return;
+        }
+        if (inviteWakeLock.isHeld()) {
+            inviteWakeLock.release();
+        }
+        statsFor(inviteCallSid).partialHeldMs += inviteHeldMs(SystemClock.elapsedRealtime());
+        inviteWakeLock = null;
+        inviteCallSid = null;
+        VoiceLog.d(TAG, "Released invite wake lock");
+    }
+
+    private void releaseProximityLocked() {
+        if (proximityWakeLock == null) {
+            return;
+        }
+        if (proximityWakeLock.isHeld()) {
+            proximityWakeLock.release();
+        }
+        statsFor(proximityCallSid).proximityHeldMs += SystemClock.elapsedRealtime() - proximityAcquiredAt;
+        proximityWakeLock = null;
+        proximityCallSid = null;
+        VoiceLog.d(TAG, "Released proximity wake lock");
+    }
+
+    /**
+     * The system drops the invite lock on its own after the timeout, so never
+     * account for more than that.
+     */
+    private long inviteHeldMs(long now) {
+        return Math.min(now - inviteAcquiredAt, INVITE_WAKE_LOCK_TIMEOUT_MS);
+    }
+
+    private CallStats statsFor(String callSid) {
+        String key = callSid != null ? callSid : "unknown";
+        CallStats callStats = stats.get(key);
+        if (callStats == null) {
+            callStats = new CallStats();
+            stats.put(key, callStats);
+        }
+        return callStats;
+    }
+
+    private static class CallStats {
+
+        int wakeCount;
+        long partialHeldMs;
+        long proximityHeldMs;
+    }
+}
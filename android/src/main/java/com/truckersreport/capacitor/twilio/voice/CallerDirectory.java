@@ -0,0 +1,402 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import android.content.Context;
+import com.twilio.voice.CallInvite;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Native cache of caller identity to applicant name, so incoming call
+ * notifications can show a name even when the app is cold and the bridge
+ * isn't available.
+ *
+ * Identities are stored as sorted 64-bit hashes in a `long[]` with offsets
+ * into a single UTF-8 blob of names, around 20 bytes per entry plus the name
+ * itself. A small LRU of decoded names sits on top for repeat callers. Past
+ * {@link #MAX_ENTRIES} the least recently looked up entries are evicted.
+ *
+ * The index is persisted to the app's files dir and loaded on a background
+ * thread; lookups never touch the disk and return null until it is loaded.
+ */
+public class CallerDirectory {
+
+    private static final String TAG = "CallerDirectory";
+    private static final String FILE_NAME = "twilio_caller_directory.bin";
+    private static final String CLIENT_PREFIX = "client:";
+    private static final int FILE_VERSION = 2;
+    private static final int HOT_CACHE_SIZE = 256;
+    public static final int MAX_ENTRIES = 100000;
+
+    /** Custom parameters checked, in order, when the caller is not in the directory. */
+    private static final String[] NAME_PARAMETERS = { "applicantName", "callerName", "name" };
+
+    private static CallerDirectory instance;
+
+    private final File file;
+    private final int maxEntries;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private final Object loadLock = new Object();
+    private volatile Index index = Index.EMPTY;
+    private volatile boolean loaded;
+
+    private final LinkedHashMap<String, String> hotCache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > HOT_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Immutable sorted index. `lastUsed` is the only mutable part, it is
+     * updated without locking since a lost update only affects eviction order.
+     * Recency is tracked in generations, `clock` advances on every bulk load.
+     */
+    private static final class Index {
+
+        static final Index EMPTY = new Index(new long[0], new int[] { 0 }, new byte[0], new int[0], 0);
+
+        final long[] hashes;
+        /** Name of entry i is blob[offsets[i], offsets[i + 1]). */
+        final int[] offsets;
+        final byte[] blob;
+        final int[] lastUsed;
+        final int clock;
+
+        Index(long[] hashes, int[] offsets, byte[] blob, int[] lastUsed, int clock) {
+            this.hashes = hashes;
+            this.offsets = offsets;
+            this.blob = blob;
+            this.lastUsed = lastUsed;
+            this.clock = clock;
+        }
+
+        int find(long hash) {
+            int position = Arrays.binarySearch(hashes, hash);
+            return position >= 0 ? position : -1;
+        }
+
+        String name(int position) {
+            return new String(blob, offsets[position], offsets[position + 1] - offsets[position], StandardCharsets.UTF_8);
+        }
+
+        byte[] nameBytes(int position) {
+            return Arrays.copyOfRange(blob, offsets[position], offsets[position + 1]);
+        }
+    }
+
+    private CallerDirectory(Context context) {
+        this(new File(context.getApplicationContext().getFilesDir(), FILE_NAME), MAX_ENTRIES);
+    }
+
+    CallerDirectory(File file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+    }
+
+    public static synchronized CallerDirectory getInstance(Context context) {
+        if (instance == null) {
+            instance = new CallerDirectory(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Load the directory on a background thread.
+     */
+    public void preload() {
+        if (!loaded) {
+            ioExecutor.execute(this::load);
+        }
+    }
+
+    /**
+     * Load the directory on the calling thread, which must not be the main thread.
+     */
+    public void load() {
+        synchronized (loadLock) {
+            if (loaded) {
+                return;
+            }
+            index = readIndex();
+            loaded = true;
+        }
+    }
+
+    /**
+     * Resolve the name to display for an incoming call. Falls back to the
+     * invite's custom parameters and then to the raw caller identity.
+     * @param callInvite
+     * @return the display name, never null
+     */
+    public String resolveCallerName(CallInvite callInvite) {
+        String from = callInvite.getFrom();
+        String name = get(from);
+        if (name != null) {
+            return name;
+        }
+        Map<String, String> parameters = callInvite.getCustomParameters();
+        for (String key : NAME_PARAMETERS) {
+            String value = parameters.get(key);
+            if (value != null && !value.isEmpty()) {
+                return value;
+            }
+        }
+        return from != null ? from : "Unknown caller";
+    }
+
+    /**
+     * Look up a name without blocking. Returns null while the directory is
+     * still loading.
+     * @param identity
+     */
+    public String get(String identity) {
+        if (identity == null) {
+            return null;
+        }
+        if (!loaded) {
+            preload();
+            return null;
+        }
+        String key = normalize(identity);
+        synchronized (hotCache) {
+            String cached = hotCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Index current = index;
+        int position = current.find(hash(key));
+        if (position < 0) {
+            return null;
+        }
+        current.lastUsed[position] = current.clock;
+        String name = current.name(position);
+        synchronized (hotCache) {
+            hotCache.put(key, name);
+        }
+        return name;
+    }
+
+    /**
+     * Add entries to the directory and persist it. Must not be called on the main thread.
+     * @param entries identity to name
+     * @param replace drop the existing entries first
+     */
+    public synchronized void putAll(Map<String, String> entries, boolean replace) {
+        load();
+        Index current = index;
+        int clock = current.clock + 1;
+
+        HashMap<Long, byte[]> added = new HashMap<>(entries.size() * 2);
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            added.put(hash(normalize(entry.getKey())), entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+
+        int kept = 0;
+        int[] keptPositions = new int[replace ? 0 : current.hashes.length];
+        if (!replace) {
+            for (int i = 0; i < current.hashes.length; i++) {
+                if (!added.containsKey(current.hashes[i])) {
+                    keptPositions[kept++] = i;
+                }
+            }
+        }
+
+        int total = added.size() + kept;
+        long[] hashes = new long[total];
+        byte[][] names = new byte[total][];
+        int[] lastUsed = new int[total];
+        int row = 0;
+        for (Map.Entry<Long, byte[]> entry : added.entrySet()) {
+            hashes[row] = entry.getKey();
+            names[row] = entry.getValue();
+            lastUsed[row] = clock;
+            row++;
+        }
+        for (int i = 0; i < kept; i++) {
+            int position = keptPositions[i];
+            hashes[row] = current.hashes[position];
+            names[row] = current.nameBytes(position);
+            lastUsed[row] = current.lastUsed[position];
+            row++;
+        }
+
+        index = buildIndex(hashes, names, lastUsed, clock, maxEntries);
+        synchronized (hotCache) {
+            hotCache.clear();
+        }
+        schedulePersist();
+    }
+
+    public synchronized void clear() {
+        synchronized (loadLock) {
+            loaded = true;
+            index = Index.EMPTY;
+        }
+        synchronized (hotCache) {
+            hotCache.clear();
+        }
+        schedulePersist();
+    }
+
+    public int size() {
+        load();
+        return index.hashes.length;
+    }
+
+    private static String normalize(String identity) {
+        return identity.startsWith(CLIENT_PREFIX) ? identity.substring(CLIENT_PREFIX.length()) : identity;
+    }
+
+    /**
+     * 64-bit FNV-1a over the identity's chars. Collisions are negligible at
+     * {@link #MAX_ENTRIES}, a colliding identity would show the other name.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Sort rows by hash, evicting the least recently used rows past maxEntries.
+     */
+    private static Index buildIndex(long[] hashes, byte[][] names, int[] lastUsed, int clock, int maxEntries) {
+        int total = hashes.length;
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++) {
+            order[i] = i;
+        }
+        if (total > maxEntries) {
+            Arrays.sort(order, (a, b) -> Integer.compare(lastUsed[b], lastUsed[a]));
+            order = Arrays.copyOf(order, maxEntries);
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+
+        int count = order.length;
+        long[] sortedHashes = new long[count];
+        int[] offsets = new int[count + 1];
+        int[] sortedLastUsed = new int[count];
+        int blobSize = 0;
+        for (Integer row : order) {
+            blobSize += names[row].length;
+        }
+        byte[] blob = new byte[blobSize];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            int row = order[i];
+            sortedHashes[i] = hashes[row];
+            sortedLastUsed[i] = lastUsed[row];
+            offsets[i] = offset;
+            System.arraycopy(names[row], 0, blob, offset, names[row].length);
+            offset += names[row].length;
+        }
+        offsets[count] = offset;
+        return new Index(sortedHashes, offsets, blob, sortedLastUsed, clock);
+    }
+
+    private Index readIndex() {
+        if (!file.exists()) {
+            return Index.EMPTY;
+        }
+        long length = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                return Index.EMPTY;
+            }
+            int count = in.readInt();
+            int clock = in.readInt();
+            // Header, then 8 bytes of hash, 4 of offset and 4 of generation per entry
+            if (count < 0 || count > maxEntries || 12L + count * 16L + 4 > length) {
+                throw new IOException("Invalid entry count " + count);
+            }
+            long[] hashes = new long[count];
+            int[] offsets = new int[count + 1];
+            int[] lastUsed = new int[count];
+            for (int i = 0; i < count; i++) {
+                hashes[i] = in.readLong();
+            }
+            for (int i = 0; i <= count; i++) {
+                offsets[i] = in.readInt();
+                if (offsets[i] < (i > 0 ? offsets[i - 1] : 0)) {
+                    throw new IOException("Invalid name offset " + offsets[i]);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                lastUsed[i] = in.readInt();
+            }
+            if (12L + count * 16L + 4 + offsets[count] != length) {
+                throw new IOException("Invalid name blob size " + offsets[count]);
+            }
+            byte[] blob = new byte[offsets[count]];
+            in.readFully(blob);
+            return new Index(hashes, offsets, blob, lastUsed, clock);
+        } catch (IOException | RuntimeException e) {
+            VoiceLog.e(TAG, e, "Failed to read caller directory, discarding it");
+            // A corrupt file would fail again on every push
+            if (!file.delete()) {
+                VoiceLog.e(TAG, "Failed to delete caller directory file");
+            }
+            return Index.EMPTY;
+        }
+    }
+
+    /**
+     * Wait until pending writes of the directory file are done.
+     */
+    void awaitPersisted() throws InterruptedException, ExecutionException {
+        ioExecutor.submit(() -> {}).get();
+    }
+
+    private void schedulePersist() {
+        final Index snapshot = index;
+        final int[] lastUsed = snapshot.lastUsed.clone();
+        ioExecutor.execute(() -> persist(snapshot, lastUsed));
+    }
+
+    private void persist(Index snapshot, int[] lastUsed) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            int count = snapshot.hashes.length;
+            out.writeInt(FILE_VERSION);
+            out.writeInt(count);
+            out.writeInt(snapshot.clock);
+            for (long hash : snapshot.hashes) {
+                out.writeLong(hash);
+            }
+            for (int offset : snapshot.offsets) {
+                out.writeInt(offset);
+            }
+            for (int used : lastUsed) {
+                out.writeInt(used);
+            }
+            out.write(snapshot.blob);
+        } catch (IOException e) {
+            VoiceLog.e(TAG, e, "Failed to write caller directory");
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            VoiceLog.e(TAG, "Failed to replace caller directory file");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.twilio.voice.AudioCodec;
+import com.twilio.voice.ConnectOptions;
+import com.twilio.voice.IceOptions;
+import com.twilio.voice.IceTransportPolicy;
+import com.twilio.voice.OpusCodec;
+import com.twilio.voice.PcmuCodec;
+import com.twilio.voice.Voice;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+
+/**
+ * Codec, bitrate, ICE and edge settings applied to the ConnectOptions of a call.
+ */
+public class ConnectionProfile {
+
+    public static final String HIGH = "high";
+    public static final String BALANCED = "balanced";
+    public static final String LOW = "low";
+    public static final String PCMU = "pcmu";
+
+    public static final String CODEC_OPUS = "opus";
+    public static final String CODEC_PCMU = "pcmu";
+
+    public static final String ICE_ALL = "all";
+    public static final String ICE_RELAY = "relay";
+
+    /** Edge the SDK uses when none is set. */
+    public static final String DEFAULT_EDGE = "roaming";
+
+    public final String name;
+    /** Audio codecs in order of preference. */
+    public final List<String> codecs;
+    /** Opus max average bitrate in bps, 0 leaves the codec default. */
+    public final int opusMaxAverageBitrate;
+    /** `all` or `relay`. */
+    public final String iceTransportPolicy;
+    /** Twilio edge location, null uses {@link #DEFAULT_EDGE}. */
+    public final String edge;
+
+    public ConnectionProfile(String name, List<String> codecs, int opusMaxAverageBitrate, String iceTransportPolicy, String edge) {
+        this.name = name;
+        this.codecs = codecs;
+        this.opusMaxAverageBitrate = opusMaxAverageBitrate;
+        this.iceTransportPolicy = iceTransportPolicy;
+        this.edge = edge;
+    }
+
+    public static Map<String, ConnectionProfile> defaults() {
+        Map<String, ConnectionProfile> profiles = new LinkedHashMap<>();
+        profiles.put(HIGH, new ConnectionProfile(HIGH, Arrays.asList(CODEC_OPUS, CODEC_PCMU), 40000, ICE_ALL, null));
+        profiles.put(BALANCED, new ConnectionProfile(BALANCED, Arrays.asList(CODEC_OPUS, CODEC_PCMU), 24000, ICE_ALL, null));
+        profiles.put(LOW, new ConnectionProfile(LOW, Arrays.asList(CODEC_OPUS, CODEC_PCMU), 12000, ICE_ALL, null));
+        profiles.put(PCMU, new ConnectionProfile(PCMU, Arrays.asList(CODEC_PCMU, CODEC_OPUS), 0, ICE_ALL, null));
+        return profiles;
+    }
+
+    /**
+     * Apply the codec and ICE settings of this profile. The edge is global to
+     * the SDK and is set separately with {@link #applyEdge()}.
+     * @param builder
+     * @return the builder
+     */
+    public ConnectOptions.Builder apply(ConnectOptions.Builder builder) {
+        List<AudioCodec> audioCodecs = new ArrayList<>();
+        for (String codec : codecs) {
+            if (CODEC_OPUS.equals(codec)) {
+                audioCodecs.add(opusMaxAverageBitrate > 0 ? new OpusCodec(opusMaxAverageBitrate) : new OpusCodec());
+            } else if (CODEC_PCMU.equals(codec)) {
+                audioCodecs.add(new PcmuCodec());
+            }
+        }
+        if (!audioCodecs.isEmpty()) {
+            builder.preferAudioCodecs(audioCodecs);
+        }
+        IceTransportPolicy policy = ICE_RELAY.equals(iceTransportPolicy) ? IceTransportPolicy.RELAY : IceTransportPolicy.ALL;
+        builder.iceOptions(new IceOptions.Builder().iceTransportPolicy(policy).build());
+        return builder;
+    }
+
+    /**
+     * Set the SDK wide edge for this profile. Profiles without an edge reset
+     * it to {@link #DEFAULT_EDGE} so a previous call's edge doesn't carry over.
+     */
+    public void applyEdge() {
+        Voice.setEdge(edge != null ? edge : DEFAULT_EDGE);
+    }
+
+    /**
+     * Read a profile from JS, missing fields are taken from the base profile.
+     * @param object
+     * @param base
+     * @return the profile
+     * @throws IllegalArgumentException for unknown codecs or ICE transport policies
+     */
+    public static ConnectionProfile fromJSObject(JSObject object, ConnectionProfile base) {
+        List<String> codecs = base != null ? base.codecs : Arrays.asList(CODEC_OPUS, CODEC_PCMU);
+        JSONArray codecArray = object.optJSONArray("codecs");
+        if (codecArray != null) {
+            codecs = new ArrayList<>();
+            for (int i = 0; i < codecArray.length(); i++) {
+                String codec = codecArray.optString(i);
+                if (!CODEC_OPUS.equals(codec) && !CODEC_PCMU.equals(codec)) {
+                    throw new IllegalArgumentException("Unknown codec " + codec);
+                }
+                codecs.add(codec);
+            }
+            if (codecs.isEmpty()) {
+                throw new IllegalArgumentException("codecs must not be empty");
+            }
+        }
+        int opusMaxAverageBitrate = object.getInteger("opusMaxAverageBitrate", base != null ? base.opusMaxAverageBitrate : 0);
+        if (opusMaxAverageBitrate < 0) {
+            throw new IllegalArgumentException("opusMaxAverageBitrate must not be negative");
+        }
+        String iceTransportPolicy = object.getString("iceTransportPolicy", base != null ? base.iceTransportPolicy : ICE_ALL);
+        if (!ICE_ALL.equals(iceTransportPolicy) && !ICE_RELAY.equals(iceTransportPolicy)) {
+            throw new IllegalArgumentException("Unknown iceTransportPolicy " + iceTransportPolicy);
+        }
+        return new ConnectionProfile(
+            object.getString("name"),
+            codecs,
+            opusMaxAverageBitrate,
+            iceTransportPolicy,
+            object.getString("edge", base != null ? base.edge : null)
+        );
+    }
+
+    public JSObject toJSObject() {
+        JSObject ret = new JSObject();
+        ret.put("name", name);
+        ret.put("codecs", new JSArray(codecs));
+        ret.put("opusMaxAverageBitrate", opusMaxAverageBitrate);
+        ret.put("iceTransportPolicy", iceTransportPolicy);
+        if (edge != null) {
+            ret.put("edge", edge);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,115 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import android.os.SystemClock;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks a {@link ConnectionProfile} at dial time from the current network
+ * and the quality recently seen on it: the last preflight result and whether
+ * recent calls raised call quality warnings.
+ */
+public class ConnectionProfileSelector {
+
+    private static final int CALL_HISTORY_SIZE = 5;
+    private static final int POOR_CALLS_THRESHOLD = 2;
+    private static final double POOR_PACKET_LOSS = 0.03;
+    private static final double POOR_JITTER_MS = 30;
+    private static final double POOR_RTT_MS = 300;
+    /** How long a poor preflight result keeps forcing the low profile. */
+    private static final long PREFLIGHT_MAX_AGE_MS = PreflightCache.DEFAULT_MAX_AGE_MS;
+    /** Networks keyed by connection handle get a new key on every reconnect, so keep only the most recent. */
+    private static final int MAX_NETWORKS = 32;
+
+    /** Cellular subtypes too slow for anything but the low profile. */
+    private static final List<String> SLOW_CELLULAR = Arrays.asList("GPRS", "EDGE", "CDMA", "1xRTT", "iDEN", "UMTS", "EVDO_0", "EVDO_A");
+
+    private static class Quality {
+
+        boolean preflightPoor;
+        long preflightAt;
+        final ArrayDeque<Boolean> calls = new ArrayDeque<>();
+
+        boolean preflightPoor(long now) {
+            return preflightPoor && now - preflightAt < PREFLIGHT_MAX_AGE_MS;
+        }
+
+        int poorCalls() {
+            int poor = 0;
+            for (Boolean call : calls) {
+                if (call) {
+                    poor++;
+                }
+            }
+            return poor;
+        }
+    }
+
+    private final Map<String, Quality> history = new LinkedHashMap<String, Quality>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Quality> eldest) {
+            return size() > MAX_NETWORKS;
+        }
+    };
+
+    public synchronized void recordPreflight(String networkKey, double packetLoss, double jitter, double rtt) {
+        if (networkKey == null) {
+            return;
+        }
+        Quality quality = qualityFor(networkKey);
+        quality.preflightPoor = packetLoss > POOR_PACKET_LOSS || jitter > POOR_JITTER_MS || rtt > POOR_RTT_MS;
+        quality.preflightAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @param networkKey
+     * @param hadQualityWarnings whether the call raised call quality warnings
+     */
+    public synchronized void recordCall(String networkKey, boolean hadQualityWarnings) {
+        if (networkKey == null) {
+            return;
+        }
+        Quality quality = qualityFor(networkKey);
+        if (!hadQualityWarnings) {
+            // A clean call is newer evidence than the preflight
+            quality.preflightPoor = false;
+        }
+        ArrayDeque<Boolean> calls = quality.calls;
+        calls.addLast(hadQualityWarnings);
+        while (calls.size() > CALL_HISTORY_SIZE) {
+            calls.removeFirst();
+        }
+    }
+
+    /**
+     * @param network
+     * @return the name of the profile to use
+     */
+    public synchronized String select(NetworkIdentity network) {
+        Quality quality = network.getKey() != null ? history.get(network.getKey()) : null;
+        if (quality != null && (quality.preflightPoor(SystemClock.elapsedRealtime()) || quality.poorCalls() >= POOR_CALLS_THRESHOLD)) {
+            return ConnectionProfile.LOW;
+        }
+        switch (network.transport) {
+            case NetworkIdentity.TRANSPORT_WIFI:
+            case NetworkIdentity.TRANSPORT_ETHERNET:
+                return network.metered ? ConnectionProfile.BALANCED : ConnectionProfile.HIGH;
+            case NetworkIdentity.TRANSPORT_CELLULAR:
+                return SLOW_CELLULAR.contains(network.subtype) ? ConnectionProfile.LOW : ConnectionProfile.BALANCED;
+            default:
+                return ConnectionProfile.BALANCED;
+        }
+    }
+
+    private Quality qualityFor(String networkKey) {
+        Quality quality = history.get(networkKey);
+        if (quality == null) {
+            quality = new Quality();
+            history.put(networkKey, quality);
+        }
+        return quality;
+    }
+}
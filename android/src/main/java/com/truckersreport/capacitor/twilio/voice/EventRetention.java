@@ -0,0 +1,178 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import android.os.SystemClock;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded replacement for Capacitor's retainUntilConsumed buffering.
+ *
+ * Events fired while JS has no listener are kept per event type up to the
+ * policy's max count (oldest dropped first) and for at most its TTL. Event
+ * types without a policy are not retained at all.
+ */
+public class EventRetention {
+
+    /** A TTL of 0 keeps retained events until they are consumed or evicted by count. */
+    public static class Policy {
+
+        public final int maxCount;
+        public final long ttlMs;
+
+        public Policy(int maxCount, long ttlMs) {
+            this.maxCount = maxCount;
+            this.ttlMs = ttlMs;
+        }
+    }
+
+    /**
+     * Builds an event payload, only invoked when the event is going to be
+     * delivered or retained.
+     */
+    public interface Payload {
+        JSObject build();
+    }
+
+    /** Time source, elapsed realtime in production. */
+    interface Clock {
+        long now();
+    }
+
+    private static final Policy NO_RETENTION = new Policy(0, 0);
+
+    private static class Retained {
+
+        final JSObject data;
+        final long retainedAt;
+
+        Retained(JSObject data, long retainedAt) {
+            this.data = data;
+            this.retainedAt = retainedAt;
+        }
+    }
+
+    private final Map<String, Policy> policies = new HashMap<>();
+    private final Map<String, ArrayDeque<Retained>> queues = new HashMap<>();
+    private final Map<String, Integer> dropped = new HashMap<>();
+    private final Clock clock;
+
+    public EventRetention() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    EventRetention(Clock clock) {
+        this.clock = clock;
+    }
+
+    public synchronized void setPolicy(String eventName, Policy policy) {
+        policies.put(eventName, policy);
+        ArrayDeque<Retained> queue = queues.get(eventName);
+        if (queue != null) {
+            trim(eventName, queue, policy, clock.now());
+        }
+    }
+
+    public synchronized Policy getPolicy(String eventName) {
+        Policy policy = policies.get(eventName);
+        return policy != null ? policy : NO_RETENTION;
+    }
+
+    public boolean retains(String eventName) {
+        return getPolicy(eventName).maxCount > 0;
+    }
+
+    public synchronized void retain(String eventName, JSObject data) {
+        Policy policy = getPolicy(eventName);
+        if (policy.maxCount <= 0) {
+            return;
+        }
+        ArrayDeque<Retained> queue = queues.get(eventName);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(eventName, queue);
+        }
+        long now = clock.now();
+        queue.addLast(new Retained(data, now));
+        trim(eventName, queue, policy, now);
+    }
+
+    /**
+     * Remove and return the retained events that haven't expired, oldest first.
+     * @param eventName
+     */
+    public synchronized List<JSObject> drain(String eventName) {
+        ArrayDeque<Retained> queue = queues.remove(eventName);
+        List<JSObject> events = new ArrayList<>();
+        if (queue == null) {
+            return events;
+        }
+        trim(eventName, queue, getPolicy(eventName), clock.now());
+        for (Retained retained : queue) {
+            events.add(retained.data);
+        }
+        return events;
+    }
+
+    public synchronized JSObject getStats() {
+        long now = clock.now();
+        Set<String> eventNames = new HashSet<>(policies.keySet());
+        eventNames.addAll(queues.keySet());
+        eventNames.addAll(dropped.keySet());
+        JSArray events = new JSArray();
+        int totalRetained = 0;
+        for (String eventName : eventNames) {
+            Policy policy = getPolicy(eventName);
+            ArrayDeque<Retained> queue = queues.get(eventName);
+            if (queue != null) {
+                trim(eventName, queue, policy, now);
+            }
+            int retained = queue != null ? queue.size() : 0;
+            JSObject event = new JSObject();
+            event.put("eventName", eventName);
+            event.put("retained", retained);
+            event.put("dropped", getDropped(eventName));
+            event.put("maxCount", policy.maxCount);
+            event.put("ttlMs", policy.ttlMs);
+            events.put(event);
+            totalRetained += retained;
+        }
+        JSObject ret = new JSObject();
+        ret.put("events", events);
+        ret.put("totalRetained", totalRetained);
+        return ret;
+    }
+
+    /**
+     * @param eventName
+     * @return how many retained events were evicted by count or TTL
+     */
+    synchronized int getDropped(String eventName) {
+        Integer droppedCount = dropped.get(eventName);
+        return droppedCount != null ? droppedCount : 0;
+    }
+
+    private void trim(String eventName, ArrayDeque<Retained> queue, Policy policy, long now) {
+        int removed = 0;
+        while (!queue.isEmpty() && queue.size() > policy.maxCount) {
+            queue.removeFirst();
+            removed++;
+        }
+        if (policy.ttlMs > 0) {
+            while (!queue.isEmpty() && now - queue.peekFirst().retainedAt > policy.ttlMs) {
+                queue.removeFirst();
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            Integer droppedCount = dropped.get(eventName);
+            dropped.put(eventName, (droppedCount != null ? droppedCount : 0) + removed);
+        }
+    }
+}
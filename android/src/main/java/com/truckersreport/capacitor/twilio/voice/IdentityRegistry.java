@@ -0,0 +1,97 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Registration table of the Twilio client identities registered on this device.
+ *
+ * All identities share the device's single FCM token, incoming invites are
+ * routed back to their identity using the invite's `to` field.
+ */
+public class IdentityRegistry {
+
+    private static final String CLIENT_PREFIX = "client:";
+
+    /** Kept in the order identities were put, the last one is the default. */
+    private final LinkedHashMap<String, Identity> identities = new LinkedHashMap<>();
+
+    public static class Identity {
+
+        public final String identity;
+        public final String accessToken;
+        public final String userId;
+        public final String windowToken;
+        public volatile boolean registered;
+
+        public Identity(String identity, String accessToken, String userId, String windowToken) {
+            this.identity = identity;
+            this.accessToken = accessToken;
+            this.userId = userId;
+            this.windowToken = windowToken;
+        }
+    }
+
+    /**
+     * Add or replace an identity. The last identity put becomes the default
+     * one used by calls that don't name an identity.
+     * @param identity
+     */
+    public synchronized void put(Identity identity) {
+        // Re-insert so a replaced identity moves to the end
+        identities.remove(identity.identity);
+        identities.put(identity.identity, identity);
+    }
+
+    /**
+     * Remove an identity. When it was the default, the identity put most
+     * recently before it becomes the default.
+     * @param identity
+     * @return the removed identity or null if it was not registered
+     */
+    public synchronized Identity remove(String identity) {
+        return identities.remove(identity);
+    }
+
+    /**
+     * Get an identity by name, or the default identity when the name is null.
+     * @param identity
+     * @return the identity or null if it is not registered
+     */
+    public synchronized Identity get(String identity) {
+        if (identity != null) {
+            return identities.get(identity);
+        }
+        Identity last = null;
+        for (Identity item : identities.values()) {
+            last = item;
+        }
+        return last;
+    }
+
+    public synchronized Identity findByAccessToken(String accessToken) {
+        for (Identity identity : identities.values()) {
+            if (identity.accessToken.equals(accessToken)) {
+                return identity;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Strip the `client:` prefix from an invite's `to` field.
+     * @param to
+     * @return the client identity, or null if `to` is null
+     */
+    public static String identityFromInviteTo(String to) {
+        if (to == null) {
+            return null;
+        }
+        return to.startsWith(CLIENT_PREFIX) ? to.substring(CLIENT_PREFIX.length()) : to;
+    }
+
+    public synchronized List<Identity> list() {
+        return new ArrayList<>(identities.values());
+    }
+}
@@ -12,12 +12,12 @@ import android.graphics.Color;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.util.Log;
 import androidx.core.app.NotificationCompat;
 import androidx.lifecycle.Lifecycle;
 import androidx.lifecycle.ProcessLifecycleOwner;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.twilio.voice.CallInvite;
+import com.twilio.voice.CancelledCallInvite;
 
 public class IncomingCallNotificationService extends Service {
 
@@ -55,24 +55,59 @@ public class IncomingCallNotificationService extends Service {
         return null;
     }
 
-    private Notification createNotification(CallInvite callInvite, int notificationId, int channelImportance) {
-        Intent intent = new Intent(this, TwilioVoicePlugin.class);
-        intent.setAction(Constants.ACTION_INCOMING_CALL_NOTIFICATION);
-        intent.putExtra(Constants.INCOMING_CALL_NOTIFICATION_ID, notificationId);
+    /**
+     * Intent opening the host app's launch activity, the plugin picks the
+     * invite up from it. The plugin itself is not an activity.
+     * @return the intent, or null if the app has no launch activity
+     */
+    private Intent launchIntent(String action, CallInvite callInvite, int notificationId) {
+        Intent intent = getPackageManager().getLaunchIntentForPackage(getPackageName());
+        if (intent == null) {
+            VoiceLog.e(TAG, "No launch activity to hand the call to");
+            return null;
+        }
+        intent.setAction(action);
         intent.putExtra(Constants.INCOMING_CALL_INVITE, callInvite);
-        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        intent.putExtra(Constants.INCOMING_CALL_NOTIFICATION_ID, notificationId);
+        intent.putExtra(Constants.INCOMING_CALL_IDENTITY, IdentityRegistry.identityFromInviteTo(callInvite.getTo()));
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        return intent;
+    }
+
+    private PendingIntent acceptPendingIntent(CallInvite callInvite, int notificationId) {
+        Intent acceptIntent = launchIntent(Constants.ACTION_ACCEPT, callInvite, notificationId);
+        if (acceptIntent == null) {
+            return null;
+        }
+        return PendingIntent.getActivity(getApplicationContext(), notificationId, acceptIntent, PendingIntent.FLAG_IMMUTABLE);
+    }
 
-        PendingIntent pendingIntent = PendingIntent.getActivity(this, notificationId, intent, PendingIntent.FLAG_IMMUTABLE);
+    private PendingIntent rejectPendingIntent(CallInvite callInvite, int notificationId) {
+        Intent rejectIntent = new Intent(getApplicationContext(), IncomingCallNotificationService.class);
+        rejectIntent.setAction(Constants.ACTION_REJECT);
+        rejectIntent.putExtra(Constants.INCOMING_CALL_INVITE, callInvite);
+        rejectIntent.putExtra(Constants.INCOMING_CALL_NOTIFICATION_ID, notificationId);
+        return PendingIntent.getService(getApplicationContext(), notificationId, rejectIntent, PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    private Notification createNotification(CallInvite callInvite, int notificationId, int channelImportance) {
+        // Opens the app without answering, the call is answered from the notification action
+        Intent intent = launchIntent(Constants.ACTION_INCOMING_CALL_NOTIFICATION, callInvite, notificationId);
+        PendingIntent pendingIntent = intent != null
+            ? PendingIntent.getActivity(this, notificationId, intent, PendingIntent.FLAG_IMMUTABLE)
+            : null;
         /*
          * Pass the notification id and call sid to use as an identifier to cancel the
          * notification later
          */
         Bundle extras = new Bundle();
         extras.putString(Constants.CALL_SID_KEY, callInvite.getCallSid());
+        extras.putString(Constants.INCOMING_CALL_IDENTITY, IdentityRegistry.identityFromInviteTo(callInvite.getTo()));
+        String callerName = CallerDirectory.getInstance(this).resolveCallerName(callInvite);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             return buildNotification(
-                callInvite.getFrom() + " is calling.",
+                callerName + " is calling.",
                 pendingIntent,
                 extras,
                 callInvite,
@@ -81,17 +116,23 @@ public class IncomingCallNotificationService extends Service {
             );
         } else {
             //noinspection deprecation
-            return new NotificationCompat.Builder(this)
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
                 .setSmallIcon(R.drawable.ic_call_end_white_24dp)
                 .setContentTitle(getString(R.string.app_name))
-                .setContentText(callInvite.getFrom() + " is calling.")
+                .setContentText(callerName + " is calling.")
                 .setAutoCancel(true)
                 .setExtras(extras)
                 .setContentIntent(pendingIntent)
                 .setGroup("test_app_notification")
                 .setCategory(Notification.CATEGORY_CALL)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
                 .setColor(Color.rgb(214, 10, 37))
-                .build();
+                .addAction(android.R.drawable.ic_menu_delete, getString(R.string.decline), rejectPendingIntent(callInvite, notificationId));
+            PendingIntent piAcceptIntent = acceptPendingIntent(callInvite, notificationId);
+            if (piAcceptIntent != null) {
+                builder.addAction(android.R.drawable.ic_menu_call, getString(R.string.answer), piAcceptIntent);
+            }
+            return builder.build();
         }
     }
 
@@ -112,28 +153,8 @@ public class IncomingCallNotificationService extends Service {
         int notificationId,
         String channelId
     ) {
-        Intent rejectIntent = new Intent(getApplicationContext(), IncomingCallNotificationService.class);
-        rejectIntent.setAction(Constants.ACTION_REJECT);
-        rejectIntent.putExtra(Constants.INCOMING_CALL_INVITE, callInvite);
-        rejectIntent.putExtra(Constants.INCOMING_CALL_NOTIFICATION_ID, notificationId);
-        PendingIntent piRejectIntent = PendingIntent.getService(
-            getApplicationContext(),
-            notificationId,
-            rejectIntent,
-            PendingIntent.FLAG_IMMUTABLE
-        );
-
-        Intent acceptIntent = new Intent(getApplicationContext(), TwilioVoicePlugin.class);
-        acceptIntent.setAction(Constants.ACTION_ACCEPT);
-        acceptIntent.putExtra(Constants.INCOMING_CALL_INVITE, callInvite);
-        acceptIntent.putExtra(Constants.INCOMING_CALL_NOTIFICATION_ID, notificationId);
-        acceptIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        PendingIntent piAcceptIntent = PendingIntent.getActivity(
-            getApplicationContext(),
-            notificationId,
-            acceptIntent,
-            PendingIntent.FLAG_IMMUTABLE
-        );
+        PendingIntent piRejectIntent = rejectPendingIntent(callInvite, notificationId);
+        PendingIntent piAcceptIntent = acceptPendingIntent(callInvite, notificationId);
 
         Notification.Builder builder = new Notification.Builder(getApplicationContext(), channelId)
             .setSmallIcon(R.drawable.ic_call_end_white_24dp)
@@ -142,9 +163,13 @@ public class IncomingCallNotificationService extends Service {
             .setCategory(Notification.CATEGORY_CALL)
             .setExtras(extras)
             .setAutoCancel(true)
-            .addAction(android.R.drawable.ic_menu_delete, getString(R.string.decline), piRejectIntent)
-            .addAction(android.R.drawable.ic_menu_call, getString(R.string.answer), piAcceptIntent)
-            .setFullScreenIntent(pendingIntent, true);
+            .addAction(android.R.drawable.ic_menu_delete, getString(R.string.decline), piRejectIntent);
+        if (piAcceptIntent != null) {
+            builder.addAction(android.R.drawable.ic_menu_call, getString(R.string.answer), piAcceptIntent);
+        }
+        if (pendingIntent != null) {
+            builder.setContentIntent(pendingIntent).setFullScreenIntent(pendingIntent, true);
+        }
 
         return builder.build();
     }
@@ -177,63 +202,53 @@ public class IncomingCallNotificationService extends Service {
 
     private void accept(CallInvite callInvite, int notificationId) {
         endForeground();
-        Intent activeCallIntent = new Intent(this, TwilioVoicePlugin.class);
-        activeCallIntent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
-        activeCallIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        activeCallIntent.putExtra(Constants.INCOMING_CALL_INVITE, callInvite);
-        activeCallIntent.putExtra(Constants.INCOMING_CALL_NOTIFICATION_ID, notificationId);
-        activeCallIntent.setAction(Constants.ACTION_ACCEPT);
-        startActivity(activeCallIntent);
+        CallWakeLockManager.getInstance(this).releaseInvite(callInvite.getCallSid());
+        Intent activeCallIntent = launchIntent(Constants.ACTION_ACCEPT, callInvite, notificationId);
+        if (activeCallIntent != null) {
+            startActivity(activeCallIntent);
+        }
     }
 
     private void reject(CallInvite callInvite) {
         endForeground();
+        CallWakeLockManager.getInstance(this).releaseInvite(callInvite.getCallSid());
         callInvite.reject(getApplicationContext());
     }
 
     private void handleCancelledCall(Intent intent) {
         endForeground();
+        CancelledCallInvite cancelledCallInvite = intent.getParcelableExtra(Constants.CANCELLED_CALL_INVITE);
+        if (cancelledCallInvite != null) {
+            CallWakeLockManager.getInstance(this).releaseInvite(cancelledCallInvite.getCallSid());
+        }
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
     }
 
+    /**
+     * Ring through the notification. The app is only opened, and the call
+     * answered, from the notification's answer action.
+     */
     private void handleIncomingCall(CallInvite callInvite, int notificationId) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            setCallInProgressNotification(callInvite, notificationId);
-        }
-        sendCallInviteToActivity(callInvite, notificationId);
+        setCallInProgressNotification(callInvite, notificationId);
+        // The call is ringing now, the notification keeps the process alive from here on
+        CallWakeLockManager.getInstance(this).releaseInvite(callInvite.getCallSid());
     }
 
     private void endForeground() {
         stopForeground(true);
+        stopSelf();
     }
 
-    @TargetApi(Build.VERSION_CODES.O)
     private void setCallInProgressNotification(CallInvite callInvite, int notificationId) {
         if (isAppVisible()) {
-            Log.i(TAG, "setCallInProgressNotification - app is visible.");
+            VoiceLog.i(TAG, "setCallInProgressNotification - app is visible.");
             startForeground(notificationId, createNotification(callInvite, notificationId, NotificationManager.IMPORTANCE_LOW));
         } else {
-            Log.i(TAG, "setCallInProgressNotification - app is NOT visible.");
+            VoiceLog.i(TAG, "setCallInProgressNotification - app is NOT visible.");
             startForeground(notificationId, createNotification(callInvite, notificationId, NotificationManager.IMPORTANCE_HIGH));
         }
     }
 
-    /*
-     * Send the CallInvite to the VoiceActivity. Start the activity if it is not running already.
-     */
-    private void sendCallInviteToActivity(CallInvite callInvite, int notificationId) {
-        if (Build.VERSION.SDK_INT >= 29 && !isAppVisible()) {
-            return;
-        }
-        Intent intent = new Intent(this, TwilioVoicePlugin.class);
-        intent.setAction(Constants.ACTION_INCOMING_CALL);
-        intent.putExtra(Constants.INCOMING_CALL_NOTIFICATION_ID, notificationId);
-        intent.putExtra(Constants.INCOMING_CALL_INVITE, callInvite);
-        intent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
-        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        this.startActivity(intent);
-    }
-
     private boolean isAppVisible() {
         return ProcessLifecycleOwner.get().getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED);
     }
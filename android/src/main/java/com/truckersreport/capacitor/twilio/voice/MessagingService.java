@@ -1,7 +1,7 @@
 package com.truckersreport.capacitor.twilio.voice;
 
 import android.content.Intent;
-import android.util.Log;
+import android.os.Build;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.google.firebase.messaging.FirebaseMessagingService;
@@ -19,10 +19,13 @@ public class MessagingService extends FirebaseMessagingService {
     @Override
     public void onMessageReceived(@NonNull RemoteMessage remoteMessage) {
         super.onMessageReceived(remoteMessage);
+        // FCM delivers on a worker thread, load the caller names here rather than when the notification is built
+        CallerDirectory.getInstance(this).load();
 
-        Log.d(TAG, "Received onMessageReceived()");
-        Log.d(TAG, "Bundle data: " + remoteMessage.getData());
-        Log.d(TAG, "From: " + remoteMessage.getFrom());
+        VoiceLog.d(TAG, "Received onMessageReceived()");
+        // Only the keys, the payload carries call details
+        VoiceLog.d(TAG, "Bundle keys: %s", remoteMessage.getData().keySet());
+        VoiceLog.d(TAG, "From: %s", remoteMessage.getFrom());
 
         // Check if message contains a data payload.
         if (remoteMessage.getData().size() > 0) {
@@ -33,7 +36,8 @@ public class MessagingService extends FirebaseMessagingService {
                     @Override
                     public void onCallInvite(@NonNull CallInvite callInvite) {
                         final int notificationId = (int) System.currentTimeMillis();
-                        Log.d(TAG, "onCallInvite");
+                        VoiceLog.d(TAG, "onCallInvite");
+                        CallWakeLockManager.getInstance(MessagingService.this).acquireInvite(callInvite.getCallSid());
                         handleInvite(callInvite, notificationId);
                     }
 
@@ -42,13 +46,15 @@ public class MessagingService extends FirebaseMessagingService {
                         @NonNull CancelledCallInvite cancelledCallInvite,
                         @Nullable CallException callException
                     ) {
-                        Log.d(TAG, "onCancelledCallInvite");
+                        VoiceLog.d(TAG, "onCancelledCallInvite");
+                        CallWakeLockManager.getInstance(MessagingService.this).releaseInvite(cancelledCallInvite.getCallSid());
+                        handleCanceledCallInvite(cancelledCallInvite);
                     }
                 }
             );
 
             if (!valid) {
-                Log.e(TAG, "The message was not a valid Twilio Voice SDK payload: " + remoteMessage.getData());
+                VoiceLog.e(TAG, "The message was not a valid Twilio Voice SDK payload: %s", remoteMessage.getData().keySet());
             }
         }
         TwilioVoicePlugin.sendRemoteMessage(remoteMessage);
@@ -64,8 +70,32 @@ public class MessagingService extends FirebaseMessagingService {
         Intent intent = new Intent(Constants.ACTION_INCOMING_CALL);
         intent.putExtra(Constants.INCOMING_CALL_INVITE, callInvite);
         intent.putExtra(Constants.INCOMING_CALL_NOTIFICATION_ID, notificationId);
+        intent.putExtra(Constants.INCOMING_CALL_IDENTITY, IdentityRegistry.identityFromInviteTo(callInvite.getTo()));
         intent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
-        TwilioVoicePlugin.handleIncomingCallIntent(intent);
+        if (!TwilioVoicePlugin.handleIncomingCallIntent(intent)) {
+            showIncomingCallNotification(callInvite, notificationId);
+        }
+    }
+
+    /**
+     * The app is not running, ring through the notification service instead.
+     */
+    private void showIncomingCallNotification(CallInvite callInvite, int notificationId) {
+        Intent intent = new Intent(this, IncomingCallNotificationService.class);
+        intent.setAction(Constants.ACTION_INCOMING_CALL);
+        intent.putExtra(Constants.INCOMING_CALL_INVITE, callInvite);
+        intent.putExtra(Constants.INCOMING_CALL_NOTIFICATION_ID, notificationId);
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                startForegroundService(intent);
+            } else {
+                startService(intent);
+            }
+        } catch (IllegalStateException e) {
+            VoiceLog.e(TAG, e, "Failed to start the incoming call notification");
+            // Nothing will ring this invite, don't keep the device awake for it
+            CallWakeLockManager.getInstance(this).releaseInvite(callInvite.getCallSid());
+        }
     }
 
     private void handleCanceledCallInvite(CancelledCallInvite cancelledCallInvite) {
@@ -73,8 +103,13 @@ public class MessagingService extends FirebaseMessagingService {
         intent.setAction(Constants.ACTION_CANCEL_CALL);
         intent.putExtra(Constants.CANCELLED_CALL_INVITE, cancelledCallInvite);
 
-        Log.d(TAG, "Handle Canceled Invite");
+        VoiceLog.d(TAG, "Handle Canceled Invite");
 
-        startService(intent);
+        try {
+            // Stops the ringing notification if the call is ringing through the service
+            startService(intent);
+        } catch (IllegalStateException e) {
+            VoiceLog.e(TAG, e, "Failed to cancel the incoming call notification");
+        }
     }
 }
@@ -0,0 +1,117 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+
+/**
+ * Describes the network the device is currently on: its transport plus the
+ * Wi-Fi SSID or cellular carrier, so results measured on one network can be
+ * reused while the device stays on it.
+ */
+public class NetworkIdentity {
+
+    public static final String TRANSPORT_WIFI = "wifi";
+    public static final String TRANSPORT_CELLULAR = "cellular";
+    public static final String TRANSPORT_ETHERNET = "ethernet";
+    public static final String TRANSPORT_OTHER = "other";
+    public static final String TRANSPORT_NONE = "none";
+
+    private static final String UNKNOWN_SSID = "<unknown ssid>";
+
+    public final String transport;
+    public final String name;
+    public final String subtype;
+    public final boolean metered;
+    private final String key;
+
+    private NetworkIdentity(String transport, String name, String subtype, boolean metered, String key) {
+        this.transport = transport;
+        this.name = name;
+        this.subtype = subtype;
+        this.metered = metered;
+        this.key = key;
+    }
+
+    /**
+     * Key identifying the network, e.g. `wifi:"Depot"` or `cellular:Verizon`.
+     *
+     * When the SSID or carrier can't be read (the SSID is redacted without
+     * location permission) the key falls back to the connection's network
+     * handle, which is unique per connection but not stable across reconnects.
+     * @return the key, or null if the network can't be told apart from others
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @SuppressWarnings("deprecation")
+    public static NetworkIdentity current(Context context) {
+        Context appContext = context.getApplicationContext();
+        ConnectivityManager connectivityManager = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return new NetworkIdentity(TRANSPORT_NONE, null, null, false, null);
+        }
+        boolean metered = connectivityManager.isActiveNetworkMetered();
+        switch (networkInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                return create(connectivityManager, TRANSPORT_WIFI, getSsid(appContext), null, metered);
+            case ConnectivityManager.TYPE_MOBILE:
+                return create(connectivityManager, TRANSPORT_CELLULAR, getCarrier(appContext), networkInfo.getSubtypeName(), metered);
+            case ConnectivityManager.TYPE_ETHERNET:
+                return new NetworkIdentity(TRANSPORT_ETHERNET, null, null, metered, TRANSPORT_ETHERNET);
+            default:
+                return create(connectivityManager, TRANSPORT_OTHER, networkInfo.getTypeName(), null, metered);
+        }
+    }
+
+    private static NetworkIdentity create(
+        ConnectivityManager connectivityManager,
+        String transport,
+        String name,
+        String subtype,
+        boolean metered
+    ) {
+        String key = null;
+        if (name != null) {
+            key = transport + ":" + name;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Network network = connectivityManager.getActiveNetwork();
+            if (network != null) {
+                key = transport + ":network-" + network.getNetworkHandle();
+            }
+        }
+        return new NetworkIdentity(transport, name, subtype, metered, key);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String getSsid(Context context) {
+        WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        if (wifiManager == null) {
+            return null;
+        }
+        try {
+            WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+            String ssid = wifiInfo != null ? wifiInfo.getSSID() : null;
+            // Without location permission the SSID is redacted
+            return ssid != null && !UNKNOWN_SSID.equals(ssid) ? ssid : null;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    private static String getCarrier(Context context) {
+        TelephonyManager telephonyManager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        if (telephonyManager == null) {
+            return null;
+        }
+        String carrier = telephonyManager.getNetworkOperatorName();
+        return carrier != null && !carrier.isEmpty() ? carrier : null;
+    }
+}
@@ -0,0 +1,73 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import android.os.SystemClock;
+import com.getcapacitor.JSObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.json.JSONException;
+
+/**
+ * Preflight results keyed by {@link NetworkIdentity#getKey()}, so repeated
+ * checks on the same network don't run a new test until the result is older
+ * than the requested max age.
+ */
+public class PreflightCache {
+
+    public static final long DEFAULT_MAX_AGE_MS = 10 * 60 * 1000;
+    /** Networks keyed by connection handle get a new key on every reconnect, so keep only the most recent. */
+    private static final int MAX_NETWORKS = 32;
+
+    private static class Entry {
+
+        final JSObject result;
+        final long measuredAt;
+
+        Entry(JSObject result, long measuredAt) {
+            this.result = result;
+            this.measuredAt = measuredAt;
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_NETWORKS;
+        }
+    };
+
+    /**
+     * @param networkKey
+     * @param maxAgeMs
+     * @return the cached result with its age, or null if there is none that is recent enough
+     */
+    public synchronized JSObject get(String networkKey, long maxAgeMs) {
+        Entry entry = entries.get(networkKey);
+        if (entry == null) {
+            return null;
+        }
+        long ageMs = SystemClock.elapsedRealtime() - entry.measuredAt;
+        if (ageMs > maxAgeMs) {
+            return null;
+        }
+        JSObject ret = copy(entry.result);
+        ret.put("cached", true);
+        ret.put("ageMs", ageMs);
+        return ret;
+    }
+
+    public synchronized void put(String networkKey, JSObject result) {
+        entries.put(networkKey, new Entry(copy(result), SystemClock.elapsedRealtime()));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private static JSObject copy(JSObject object) {
+        try {
+            return new JSObject(object.toString());
+        } catch (JSONException e) {
+            return new JSObject();
+        }
+    }
+}
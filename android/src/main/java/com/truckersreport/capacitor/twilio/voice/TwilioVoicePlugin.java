@@ -25,14 +25,28 @@ import com.twilio.voice.CallException;
 import com.twilio.voice.CallInvite;
 import com.twilio.voice.CallInvite;
 import com.twilio.voice.ConnectOptions;
+import com.twilio.voice.IceCandidatePairStats;
+import com.twilio.voice.PreflightListener;
+import com.twilio.voice.PreflightOptions;
+import com.twilio.voice.PreflightReport;
+import com.twilio.voice.PreflightTest;
+import com.twilio.voice.RTCStatsSample;
 import com.twilio.voice.RegistrationException;
 import com.twilio.voice.RegistrationListener;
+import com.twilio.voice.UnregistrationListener;
 import com.twilio.voice.Voice;
+import com.twilio.voice.VoiceException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -45,17 +59,59 @@ public class TwilioVoicePlugin extends Plugin {
     public MessagingService firebaseMessagingService;
     private NotificationChannelManager notificationChannelManager;
     RegistrationListener registrationListener = registrationListener();
+    UnregistrationListener unregistrationListener = unregistrationListener();
     Call.Listener callListener = callListener();
     private static final String TAG = "TWILIO";
 
     private static final String EVENT_TOKEN_CHANGE = "registration";
     private static final String EVENT_TOKEN_ERROR = "registrationError";
-    private String accessToken;
-    private String userId;
-    private String windowToken;
+    private static final String EVENT_NOTIFICATION_RECEIVED = "pushNotificationReceived";
+    private static final String EVENT_NOTIFICATION_ACTION = "pushNotificationActionPerformed";
+    private static final String EVENT_TWILIO_REGISTRATION = "twilioRegistration";
+    private static final String EVENT_TWILIO_REGISTRATION_ERROR = "twilioRegistrationError";
+    private static final String EVENT_PREFLIGHT_PROGRESS = "preflightProgress";
+    private static final String EVENT_CALL_QUALITY_REPORT = "callQualityReport";
+    private static final String EVENT_CALL_INVITE = "callInvite";
+    private final IdentityRegistry identityRegistry = new IdentityRegistry();
+    private final EventRetention eventRetention = new EventRetention();
+    private final PreflightCache preflightCache = new PreflightCache();
+    private final Object preflightLock = new Object();
+    private PreflightTest preflightTest;
+    private final Map<String, ConnectionProfile> connectionProfiles = Collections.synchronizedMap(
+        new LinkedHashMap<>(ConnectionProfile.defaults())
+    );
+    private final ConnectionProfileSelector profileSelector = new ConnectionProfileSelector();
+    /** Per call state for the call quality report, an invite can arrive during another call. */
+    private final ConcurrentHashMap<Call, CallTracking> trackedCalls = new ConcurrentHashMap<>();
+
+    private static class CallTracking {
+
+        final String profile;
+        final String identity;
+        final String networkKey;
+        /** The network key, or only the transport when the network can't be keyed. */
+        final String network;
+        volatile boolean hadQualityWarnings;
+
+        CallTracking(String profile, String identity, NetworkIdentity network) {
+            this.profile = profile;
+            this.identity = identity;
+            this.networkKey = network.getKey();
+            this.network = network.getKey() != null ? network.getKey() : network.transport;
+        }
+    }
 
     @Override
     public void load() {
+        // Only the latest token/registration matters, notifications and taps expire
+        eventRetention.setPolicy(EVENT_TOKEN_CHANGE, new EventRetention.Policy(1, 0));
+        eventRetention.setPolicy(EVENT_TOKEN_ERROR, new EventRetention.Policy(1, 0));
+        eventRetention.setPolicy(EVENT_NOTIFICATION_RECEIVED, new EventRetention.Policy(10, 5 * 60 * 1000));
+        eventRetention.setPolicy(EVENT_NOTIFICATION_ACTION, new EventRetention.Policy(5, 10 * 60 * 1000));
+        eventRetention.setPolicy(EVENT_TWILIO_REGISTRATION, new EventRetention.Policy(10, 0));
+        eventRetention.setPolicy(EVENT_TWILIO_REGISTRATION_ERROR, new EventRetention.Policy(10, 0));
+        eventRetention.setPolicy(EVENT_CALL_INVITE, new EventRetention.Policy(5, 60 * 1000));
+
         notificationManager = (NotificationManager) getActivity().getSystemService(Context.NOTIFICATION_SERVICE);
         firebaseMessagingService = new MessagingService();
 
@@ -66,6 +122,9 @@ public class TwilioVoicePlugin extends Plugin {
         }
 
         notificationChannelManager = new NotificationChannelManager(getActivity(), notificationManager, getConfig());
+        CallerDirectory.getInstance(getContext()).preload();
+        // Answered from the notification while the app was not running
+        handleAcceptIntent(getActivity().getIntent());
     }
 
     /**
@@ -96,19 +155,69 @@ public class TwilioVoicePlugin extends Plugin {
      */
     @PluginMethod
     public void registerTwilio(PluginCall call) {
-        accessToken = call.getString("accessToken");
-        userId = call.getString("userId");
-        windowToken = call.getString("windowToken");
-        String registrationToken = call.getString("registrationToken");
-
-        Context ctx = this.getActivity().getApplicationContext();
+        if (getPermissionState("audio") != PermissionState.GRANTED) {
+            requestPermissionForAlias("audio", call, "recordAudioPermsCallback");
+        } else {
+            registerIdentities(call);
+        }
+    }
 
+    /**
+     * Register several twilio identities against the same FCM token
+     * @param call
+     */
+    @PluginMethod
+    public void registerTwilioIdentities(PluginCall call) {
+        if (call.getArray("identities") == null) {
+            call.reject("identities is required");
+            return;
+        }
         if (getPermissionState("audio") != PermissionState.GRANTED) {
             requestPermissionForAlias("audio", call, "recordAudioPermsCallback");
         } else {
-            Voice.register(accessToken, Voice.RegistrationChannel.FCM, registrationToken, registrationListener);
-            call.resolve();
+            registerIdentities(call);
+        }
+    }
+
+    /**
+     * Unregister twilio identities from the FCM token
+     * @param call
+     */
+    @PluginMethod
+    public void unregisterTwilioIdentities(PluginCall call) {
+        String registrationToken = call.getString("registrationToken");
+        JSArray identities = call.getArray("identities", new JSArray());
+        try {
+            for (String name : identities.<String>toList()) {
+                IdentityRegistry.Identity identity = identityRegistry.remove(name);
+                if (identity != null) {
+                    Voice.unregister(identity.accessToken, Voice.RegistrationChannel.FCM, registrationToken, unregistrationListener);
+                }
+            }
+        } catch (JSONException e) {
+            call.reject("identities must be an array of strings");
+            return;
+        }
+        call.resolve();
+    }
+
+    /**
+     * List the twilio identities registered on this device
+     * @param call
+     */
+    @PluginMethod
+    public void getTwilioIdentities(PluginCall call) {
+        JSArray identities = new JSArray();
+        for (IdentityRegistry.Identity identity : identityRegistry.list()) {
+            JSObject item = new JSObject();
+            item.put("identity", identity.identity);
+            item.put("userId", identity.userId);
+            item.put("registered", identity.registered);
+            identities.put(item);
         }
+        JSObject ret = new JSObject();
+        ret.put("identities", identities);
+        call.resolve(ret);
     }
 
     /**
@@ -119,69 +228,364 @@ public class TwilioVoicePlugin extends Plugin {
     public void callApplicant(PluginCall call) {
         String applicantId = call.getString("applicantId");
         String applicantName = call.getString("applicantName");
+        IdentityRegistry.Identity identity = identityRegistry.get(call.getString("identity"));
+        if (identity == null) {
+            call.reject("Twilio identity is not registered");
+            return;
+        }
+        NetworkIdentity network = NetworkIdentity.current(getContext());
+        String profileName = call.getString("profile", profileSelector.select(network));
+        ConnectionProfile profile = connectionProfiles.get(profileName);
+        if (profile == null) {
+            call.reject("Unknown connection profile: " + profileName);
+            return;
+        }
         Context ctx = this.getActivity().getApplicationContext();
         HashMap<String, String> params = new HashMap<>();
         params.put("to", "");
-        params.put("userId", userId);
+        params.put("userId", identity.userId);
         params.put("applicantId", applicantId);
-        params.put("windowToken", windowToken);
-        ConnectOptions connectOptions = new ConnectOptions.Builder(accessToken).params(params).build();
-        Voice.connect(ctx, connectOptions, callListener);
+        params.put("windowToken", identity.windowToken);
+        ConnectOptions connectOptions = profile.apply(new ConnectOptions.Builder(identity.accessToken).params(params)).build();
+        profile.applyEdge();
+        Call outgoingCall = Voice.connect(ctx, connectOptions, callListener);
+        trackedCalls.put(outgoingCall, new CallTracking(profile.name, identity.identity, network));
+        JSObject ret = new JSObject();
+        ret.put("identity", identity.identity);
+        ret.put("profile", profile.toJSObject());
+        ret.put("transport", network.transport);
+        call.resolve(ret);
+    }
+
+    /**
+     * Bulk load caller identity to applicant name entries used by incoming call notifications
+     * @param call
+     */
+    @PluginMethod
+    public void loadCallerDirectory(PluginCall call) {
+        JSObject entries = call.getObject("entries");
+        if (entries == null) {
+            call.reject("entries is required");
+            return;
+        }
+        HashMap<String, String> names = new HashMap<>(entries.length() * 2);
+        Iterator<String> keys = entries.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            names.put(key, entries.optString(key, null));
+        }
+        CallerDirectory directory = CallerDirectory.getInstance(getContext());
+        directory.putAll(names, call.getBoolean("replace", false));
+        JSObject ret = new JSObject();
+        ret.put("size", directory.size());
+        call.resolve(ret);
+    }
+
+    /**
+     * Remove every entry from the caller directory
+     * @param call
+     */
+    @PluginMethod
+    public void clearCallerDirectory(PluginCall call) {
+        CallerDirectory.getInstance(getContext()).clear();
+        call.resolve();
+    }
+
+    /**
+     * Export the diagnostics logged in the last minutes
+     * @param call
+     */
+    @PluginMethod
+    public void exportLogs(PluginCall call) {
+        call.resolve(VoiceLog.export(call.getInt("minutes", 10), call.getInt("maxEntries", Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Change the minimum level of stored diagnostics and toggle the compressed file sink
+     * @param call
+     */
+    @PluginMethod
+    public void configureLogging(PluginCall call) {
+        String level = call.getString("level");
+        if (level != null) {
+            VoiceLog.setMinLevel(VoiceLog.parseLevel(level, Log.DEBUG));
+        }
+        Boolean fileSink = call.getBoolean("fileSink");
+        if (fileSink != null) {
+            VoiceLog.setFileSinkEnabled(getContext(), fileSink);
+        }
+        call.resolve();
+    }
+
+    /**
+     * Wake lock held-time and wake-count per call
+     * @param call
+     */
+    @PluginMethod
+    public void getWakeLockStats(PluginCall call) {
+        call.resolve(CallWakeLockManager.getInstance(getContext()).getStats());
+    }
+
+    /**
+     * Add a connection profile or override one of the built-in profiles
+     * @param call
+     */
+    @PluginMethod
+    public void setConnectionProfile(PluginCall call) {
+        String name = call.getString("name");
+        if (name == null) {
+            call.reject("name is required");
+            return;
+        }
+        ConnectionProfile profile;
+        try {
+            profile = ConnectionProfile.fromJSObject(call.getData(), connectionProfiles.get(name));
+        } catch (IllegalArgumentException e) {
+            call.reject(e.getMessage());
+            return;
+        }
+        connectionProfiles.put(name, profile);
+        call.resolve(profile.toJSObject());
+    }
+
+    /**
+     * List the connection profiles and the one that would be picked for the current network
+     * @param call
+     */
+    @PluginMethod
+    public void getConnectionProfiles(PluginCall call) {
+        JSArray profiles = new JSArray();
+        synchronized (connectionProfiles) {
+            for (ConnectionProfile profile : connectionProfiles.values()) {
+                profiles.put(profile.toJSObject());
+            }
+        }
         JSObject ret = new JSObject();
+        ret.put("profiles", profiles);
+        ret.put("selected", profileSelector.select(NetworkIdentity.current(getContext())));
         call.resolve(ret);
     }
 
+    /**
+     * Test whether the current network can carry a call. Results are cached per
+     * network for `maxAgeMs` unless `force` is set.
+     * @param call
+     */
+    @PluginMethod
+    public void runPreflight(PluginCall call) {
+        NetworkIdentity network = NetworkIdentity.current(getContext());
+        // Results are only cached for networks that can be told apart
+        if (network.getKey() != null && !call.getBoolean("force", false)) {
+            JSObject cached = preflightCache.get(network.getKey(), call.getLong("maxAgeMs", PreflightCache.DEFAULT_MAX_AGE_MS));
+            if (cached != null) {
+                call.resolve(cached);
+                return;
+            }
+        }
+        String accessToken = call.getString("accessToken");
+        if (accessToken == null) {
+            IdentityRegistry.Identity identity = identityRegistry.get(call.getString("identity"));
+            if (identity == null) {
+                call.reject("accessToken is required when no twilio identity is registered");
+                return;
+            }
+            accessToken = identity.accessToken;
+        }
+        synchronized (preflightLock) {
+            if (preflightTest != null) {
+                call.reject("A preflight test is already running");
+                return;
+            }
+            PreflightOptions preflightOptions = new PreflightOptions.Builder(accessToken).build();
+            preflightTest = Voice.runPreflight(getContext(), preflightOptions, preflightListener(call, network));
+        }
+    }
+
     /**
      * Permission callback when audio permission is not granted
      * @param call
      */
     @PermissionCallback
     private void recordAudioPermsCallback(PluginCall call) {
-        String accessToken = call.getString("accessToken");
-        String registrationToken = call.getString("registrationToken");
-        Context ctx = this.getActivity().getApplicationContext();
         if (getPermissionState("audio") == PermissionState.GRANTED) {
-            Voice.register(accessToken, Voice.RegistrationChannel.FCM, registrationToken, registrationListener);
-            call.resolve();
+            registerIdentities(call);
         } else {
             call.reject("Audio permission is required");
         }
     }
 
+    /**
+     * Store the identities of a registerTwilio/registerTwilioIdentities call and
+     * register them all at once. Voice.register is asynchronous so the
+     * registrations run in parallel and report back to the shared listener.
+     * @param call
+     */
+    private void registerIdentities(PluginCall call) {
+        String registrationToken = call.getString("registrationToken");
+        List<IdentityRegistry.Identity> identities = new ArrayList<>();
+        JSArray items = call.getArray("identities");
+        if (items == null) {
+            String userId = call.getString("userId");
+            String identity = call.getString("identity");
+            if (identity == null) {
+                // Kept for apps registering before identity existed, invites only route when userId is the client identity
+                VoiceLog.w(TAG, "registerTwilio called without identity, using userId as the twilio client identity");
+                identity = userId;
+            }
+            identities.add(
+                new IdentityRegistry.Identity(
+                    identity,
+                    call.getString("accessToken"),
+                    userId,
+                    call.getString("windowToken")
+                )
+            );
+        } else {
+            try {
+                for (int i = 0; i < items.length(); i++) {
+                    JSONObject item = items.getJSONObject(i);
+                    String userId = item.optString("userId", null);
+                    identities.add(
+                        new IdentityRegistry.Identity(
+                            item.optString("identity", null),
+                            item.getString("accessToken"),
+                            userId,
+                            item.optString("windowToken", null)
+                        )
+                    );
+                }
+            } catch (JSONException e) {
+                call.reject("Invalid identities: " + e.getMessage());
+                return;
+            }
+        }
+        for (IdentityRegistry.Identity identity : identities) {
+            if (identity.identity == null || identity.accessToken == null) {
+                call.reject("identity and accessToken are required");
+                return;
+            }
+        }
+        for (IdentityRegistry.Identity identity : identities) {
+            identityRegistry.put(identity);
+            Voice.register(identity.accessToken, Voice.RegistrationChannel.FCM, registrationToken, registrationListener);
+        }
+        call.resolve();
+    }
+
     @Override
     protected void handleOnNewIntent(Intent data) {
         super.handleOnNewIntent(data);
+        if (handleAcceptIntent(data)) {
+            return;
+        }
         Bundle bundle = data.getExtras();
         if (bundle != null && bundle.containsKey("google.message_id")) {
-            JSObject notificationJson = new JSObject();
-            JSObject dataObject = new JSObject();
-            for (String key : bundle.keySet()) {
-                if (key.equals("google.message_id")) {
-                    notificationJson.put("id", bundle.get(key));
-                } else {
-                    Object value = bundle.get(key);
-                    String valueStr = (value != null) ? value.toString() : null;
-                    dataObject.put(key, valueStr);
+            emit(
+                EVENT_NOTIFICATION_ACTION,
+                () -> {
+                    JSObject notificationJson = new JSObject();
+                    JSObject dataObject = new JSObject();
+                    for (String key : bundle.keySet()) {
+                        if (key.equals("google.message_id")) {
+                            notificationJson.put("id", bundle.get(key));
+                        } else {
+                            Object value = bundle.get(key);
+                            String valueStr = (value != null) ? value.toString() : null;
+                            dataObject.put(key, valueStr);
+                        }
+                    }
+                    notificationJson.put("data", dataObject);
+                    JSObject actionJson = new JSObject();
+                    actionJson.put("actionId", "tap");
+                    actionJson.put("notification", notificationJson);
+                    return actionJson;
                 }
-            }
-            notificationJson.put("data", dataObject);
-            JSObject actionJson = new JSObject();
-            actionJson.put("actionId", "tap");
-            actionJson.put("notification", notificationJson);
-            notifyListeners("pushNotificationActionPerformed", actionJson, true);
+            );
         }
     }
 
     public void sendToken(String token) {
-        JSObject data = new JSObject();
-        data.put("value", token);
-        notifyListeners(EVENT_TOKEN_CHANGE, data, true);
+        emit(
+            EVENT_TOKEN_CHANGE,
+            () -> {
+                JSObject data = new JSObject();
+                data.put("value", token);
+                return data;
+            }
+        );
     }
 
     public void sendError(String error) {
-        JSObject data = new JSObject();
-        data.put("error", error);
-        notifyListeners(EVENT_TOKEN_ERROR, data, true);
+        emit(
+            EVENT_TOKEN_ERROR,
+            () -> {
+                JSObject data = new JSObject();
+                data.put("error", error);
+                return data;
+            }
+        );
+    }
+
+    /**
+     * Deliver retained events as soon as JS subscribes to them
+     * @param call
+     */
+    @Override
+    @PluginMethod(returnType = PluginMethod.RETURN_NONE)
+    public void addListener(PluginCall call) {
+        super.addListener(call);
+        String eventName = call.getString("eventName");
+        if (eventName != null) {
+            flushRetained(eventName);
+        }
+    }
+
+    /**
+     * Change how many events of a type are kept, and for how long, while JS isn't listening to it
+     * @param call
+     */
+    @PluginMethod
+    public void setEventRetentionPolicy(PluginCall call) {
+        String eventName = call.getString("eventName");
+        if (eventName == null) {
+            call.reject("eventName is required");
+            return;
+        }
+        int maxCount = call.getInt("maxCount", 0);
+        long ttlMs = call.getLong("ttlMs", 0L);
+        eventRetention.setPolicy(eventName, new EventRetention.Policy(Math.max(maxCount, 0), Math.max(ttlMs, 0)));
+        call.resolve();
+    }
+
+    /**
+     * Number of events currently retained and dropped per event type
+     * @param call
+     */
+    @PluginMethod
+    public void getEventRetentionStats(PluginCall call) {
+        call.resolve(eventRetention.getStats());
+    }
+
+    /**
+     * Notify JS listeners of an event, or retain it according to its retention
+     * policy. The payload is only built when it is delivered or retained.
+     */
+    private void emit(String eventName, EventRetention.Payload payload) {
+        if (hasListeners(eventName)) {
+            notifyListeners(eventName, payload.build(), false);
+        } else if (eventRetention.retains(eventName)) {
+            eventRetention.retain(eventName, payload.build());
+            // A listener may have been added while the event was being retained
+            if (hasListeners(eventName)) {
+                flushRetained(eventName);
+            }
+        }
+    }
+
+    private void flushRetained(String eventName) {
+        for (JSObject data : eventRetention.drain(eventName)) {
+            notifyListeners(eventName, data, false);
+        }
     }
 
     public static void onNewToken(String newToken) {
@@ -200,30 +604,73 @@ public class TwilioVoicePlugin extends Plugin {
         }
     }
 
-    public static void handleIncomingCallIntent(Intent intent) {
+    /**
+     * Hand an incoming call to the loaded plugin
+     * @param intent
+     * @return false if the plugin is not loaded and the call was not handled
+     */
+    public static boolean handleIncomingCallIntent(Intent intent) {
         TwilioVoicePlugin pushPlugin = TwilioVoicePlugin.getPushNotificationsInstance();
         if (pushPlugin != null) {
             pushPlugin.onIncomingCallIntent(intent);
+            return true;
         }
+        return false;
     }
 
-    public void onIncomingCallIntent(Intent intent) {
-        Log.d(TAG, "onIncomingCallIntent");
-        CallInvite mCallInvite = intent.getParcelableExtra("INCOMING_CALL_INVITE");
-        mCallInvite.accept(getContext(), callListener);
+    /**
+     * Answer a call from the incoming call notification's answer action,
+     * which opens the app's launch activity.
+     * @param intent
+     * @return true if the intent was an answer action
+     */
+    private boolean handleAcceptIntent(Intent intent) {
+        if (intent == null || !Constants.ACTION_ACCEPT.equals(intent.getAction())) {
+            return false;
+        }
+        // Don't answer again when the activity is recreated with the same intent
+        intent.setAction(null);
+        if (intent.getParcelableExtra(Constants.INCOMING_CALL_INVITE) == null) {
+            return true;
+        }
+        // Stopping the service removes its ringing notification
+        getContext().stopService(new Intent(getContext(), IncomingCallNotificationService.class));
+        onIncomingCallIntent(intent);
+        return true;
     }
 
-    public void fireNotification(RemoteMessage remoteMessage) {
-        JSObject remoteMessageData = new JSObject();
-
-        JSObject data = new JSObject();
-        remoteMessageData.put("id", remoteMessage.getMessageId());
-        for (String key : remoteMessage.getData().keySet()) {
-            Object value = remoteMessage.getData().get(key);
-            data.put(key, value);
+    public void onIncomingCallIntent(Intent intent) {
+        VoiceLog.d(TAG, "onIncomingCallIntent");
+        CallInvite mCallInvite = intent.getParcelableExtra(Constants.INCOMING_CALL_INVITE);
+        String identityName = intent.getStringExtra(Constants.INCOMING_CALL_IDENTITY);
+        if (identityName == null) {
+            identityName = IdentityRegistry.identityFromInviteTo(mCallInvite.getTo());
         }
-        remoteMessageData.put("data", data);
+        IdentityRegistry.Identity identity = identityName != null ? identityRegistry.get(identityName) : null;
+        if (identity != null) {
+            VoiceLog.d(TAG, "Incoming call for identity %s", identityName);
+        } else {
+            VoiceLog.w(TAG, "Incoming call for an unregistered identity %s", identityName);
+        }
+        final String routedIdentity = identityName;
+        emit(
+            EVENT_CALL_INVITE,
+            () -> {
+                JSObject data = new JSObject();
+                data.put("callSid", mCallInvite.getCallSid());
+                data.put("from", mCallInvite.getFrom());
+                data.put("identity", routedIdentity);
+                data.put("registered", identity != null);
+                return data;
+            }
+        );
+        NetworkIdentity network = NetworkIdentity.current(getContext());
+        Call incomingCall = mCallInvite.accept(getContext(), callListener);
+        trackedCalls.put(incomingCall, new CallTracking(null, identityName, network));
+        CallWakeLockManager.getInstance(getContext()).releaseInvite(mCallInvite.getCallSid());
+    }
 
+    public void fireNotification(RemoteMessage remoteMessage) {
         RemoteMessage.Notification notification = remoteMessage.getNotification();
         if (notification != null) {
             String title = notification.getTitle();
@@ -238,7 +685,7 @@ public class TwilioVoicePlugin extends Plugin {
                             .getApplicationInfo(getContext().getPackageName(), PackageManager.GET_META_DATA);
                         bundle = applicationInfo.metaData;
                     } catch (PackageManager.NameNotFoundException e) {
-                        e.printStackTrace();
+                        VoiceLog.e(TAG, e, "Failed to read application meta-data");
                     }
                     int pushIcon = android.R.drawable.ic_dialog_info;
 
@@ -256,40 +703,238 @@ public class TwilioVoicePlugin extends Plugin {
                     notificationManager.notify(0, builder.build());
                 }
             }
-            remoteMessageData.put("title", title);
-            remoteMessageData.put("body", body);
-            remoteMessageData.put("click_action", notification.getClickAction());
-
-            Uri link = notification.getLink();
-            if (link != null) {
-                remoteMessageData.put("link", link.toString());
-            }
         }
 
-        notifyListeners("pushNotificationReceived", remoteMessageData, true);
+        emit(
+            EVENT_NOTIFICATION_RECEIVED,
+            () -> {
+                JSObject remoteMessageData = new JSObject();
+
+                JSObject data = new JSObject();
+                remoteMessageData.put("id", remoteMessage.getMessageId());
+                for (String key : remoteMessage.getData().keySet()) {
+                    Object value = remoteMessage.getData().get(key);
+                    data.put(key, value);
+                }
+                remoteMessageData.put("data", data);
+
+                if (notification != null) {
+                    remoteMessageData.put("title", notification.getTitle());
+                    remoteMessageData.put("body", notification.getBody());
+                    remoteMessageData.put("click_action", notification.getClickAction());
+
+                    Uri link = notification.getLink();
+                    if (link != null) {
+                        remoteMessageData.put("link", link.toString());
+                    }
+                }
+                return remoteMessageData;
+            }
+        );
     }
 
     private RegistrationListener registrationListener() {
         return new RegistrationListener() {
             @Override
             public void onRegistered(@NonNull String accessToken, @NonNull String fcmToken) {
-                Log.d(TAG, "Successfully registered FCM " + fcmToken);
-                JSObject data = new JSObject();
-                data.put("token", fcmToken);
-                notifyListeners("twilioRegistration", data, true);
+                VoiceLog.d(TAG, "Successfully registered FCM");
+                IdentityRegistry.Identity identity = identityRegistry.findByAccessToken(accessToken);
+                if (identity != null) {
+                    identity.registered = true;
+                }
+                emit(
+                    EVENT_TWILIO_REGISTRATION,
+                    () -> {
+                        JSObject data = new JSObject();
+                        data.put("token", fcmToken);
+                        if (identity != null) {
+                            data.put("identity", identity.identity);
+                        }
+                        return data;
+                    }
+                );
             }
 
             @Override
             public void onError(@NonNull RegistrationException error, @NonNull String accessToken, @NonNull String fcmToken) {
                 String message = String.format(Locale.US, "Registration Error: %d, %s", error.getErrorCode(), error.getMessage());
-                Log.e(TAG, message);
+                VoiceLog.e(TAG, message);
+                IdentityRegistry.Identity identity = identityRegistry.findByAccessToken(accessToken);
+                if (identity != null) {
+                    identity.registered = false;
+                }
+                emit(
+                    EVENT_TWILIO_REGISTRATION_ERROR,
+                    () -> {
+                        JSObject data = new JSObject();
+                        data.put("error", message);
+                        if (identity != null) {
+                            data.put("identity", identity.identity);
+                        }
+                        return data;
+                    }
+                );
+            }
+        };
+    }
+
+    private PreflightListener preflightListener(PluginCall pluginCall, NetworkIdentity network) {
+        return new PreflightListener() {
+            private final List<RTCStatsSample> samples = new ArrayList<>();
+
+            @Override
+            public void onConnected(@NonNull PreflightTest preflightTest) {
+                VoiceLog.d(TAG, "Preflight connected");
+                emitPreflightProgress("connected", null);
+            }
+
+            @Override
+            public void onSample(@NonNull PreflightTest preflightTest, @NonNull RTCStatsSample sample) {
+                samples.add(sample);
+                emitPreflightProgress("sample", sample);
+            }
+
+            @Override
+            public void onQualityWarning(
+                @NonNull PreflightTest preflightTest,
+                @NonNull Set<Call.CallQualityWarning> currentWarnings,
+                @NonNull Set<Call.CallQualityWarning> previousWarnings
+            ) {
+                emitPreflightProgress("qualityWarning", null);
+            }
+
+            @Override
+            public void onCompleted(@NonNull PreflightTest preflightTest, @NonNull PreflightReport report) {
+                VoiceLog.d(TAG, "Preflight completed");
+                clearPreflightTest();
+                JSObject result = preflightResult(report, samples, network);
+                String networkKey = network.getKey();
+                // The device may have switched networks while the test ran
+                if (networkKey != null && networkKey.equals(NetworkIdentity.current(getContext()).getKey())) {
+                    preflightCache.put(networkKey, result);
+                    profileSelector.recordPreflight(
+                        networkKey,
+                        result.optDouble("packetLoss"),
+                        result.optDouble("jitter"),
+                        result.optDouble("rtt")
+                    );
+                } else {
+                    VoiceLog.d(TAG, "Network changed during preflight, result not cached");
+                }
+                result.put("cached", false);
+                result.put("ageMs", 0);
+                pluginCall.resolve(result);
+            }
+
+            @Override
+            public void onFailed(@NonNull PreflightTest preflightTest, @NonNull VoiceException error) {
+                String message = String.format(Locale.US, "Preflight Error: %d, %s", error.getErrorCode(), error.getMessage());
+                VoiceLog.e(TAG, message);
+                clearPreflightTest();
+                pluginCall.reject(message);
+            }
+        };
+    }
+
+    private void clearPreflightTest() {
+        synchronized (preflightLock) {
+            preflightTest = null;
+        }
+    }
+
+    private void emitPreflightProgress(String state, RTCStatsSample sample) {
+        emit(
+            EVENT_PREFLIGHT_PROGRESS,
+            () -> {
                 JSObject data = new JSObject();
-                data.put("error", message);
-                notifyListeners("twilioRegistrationError", data, true);
+                data.put("state", state);
+                if (sample != null) {
+                    data.put("jitter", sample.getJitter());
+                    data.put("rtt", sample.getRtt());
+                    data.put("packetLoss", sample.getPacketsLostFraction());
+                    data.put("mos", sample.getMos());
+                }
+                return data;
+            }
+        );
+    }
+
+    /**
+     * Summarize a preflight report. Jitter, RTT and packet loss are averaged
+     * over the samples received during the test.
+     */
+    private static JSObject preflightResult(PreflightReport report, List<RTCStatsSample> samples, NetworkIdentity network) {
+        double jitter = 0;
+        double rtt = 0;
+        double packetLoss = 0;
+        double maxJitter = 0;
+        double maxRtt = 0;
+        for (RTCStatsSample sample : samples) {
+            jitter += sample.getJitter();
+            rtt += sample.getRtt();
+            packetLoss += sample.getPacketsLostFraction();
+            maxJitter = Math.max(maxJitter, sample.getJitter());
+            maxRtt = Math.max(maxRtt, sample.getRtt());
+        }
+        int count = Math.max(samples.size(), 1);
+        JSObject result = new JSObject();
+        result.put("callSid", report.getCallSid());
+        result.put("callQuality", report.getCallQuality() != null ? report.getCallQuality().name().toLowerCase(Locale.US) : null);
+        result.put("jitter", jitter / count);
+        result.put("maxJitter", maxJitter);
+        result.put("rtt", rtt / count);
+        result.put("maxRtt", maxRtt);
+        result.put("packetLoss", packetLoss / count);
+        result.put("samples", samples.size());
+        result.put("turnRequired", report.isTurnRequired());
+        IceCandidatePairStats candidatePair = report.getSelectedIceCandidatePairStats();
+        if (candidatePair != null && candidatePair.getLocalCandidate() != null) {
+            result.put("iceCandidateType", candidatePair.getLocalCandidate().getCandidateType());
+        }
+        result.put("transport", network.transport);
+        result.put("network", network.name);
+        return result;
+    }
+
+    private UnregistrationListener unregistrationListener() {
+        return new UnregistrationListener() {
+            @Override
+            public void onUnregistered(String accessToken, String fcmToken) {
+                VoiceLog.d(TAG, "Successfully unregistered FCM");
+            }
+
+            @Override
+            public void onError(RegistrationException error, String accessToken, String fcmToken) {
+                VoiceLog.e(TAG, "Unregistration Error: %d, %s", error.getErrorCode(), error.getMessage());
             }
         };
     }
 
+    /**
+     * Feed the call's quality into the profile selection history and report
+     * it together with the profile the call used.
+     */
+    private void finishCallTracking(Call call) {
+        CallTracking tracking = trackedCalls.remove(call);
+        if (tracking == null) {
+            return;
+        }
+        boolean hadQualityWarnings = tracking.hadQualityWarnings;
+        profileSelector.recordCall(tracking.networkKey, hadQualityWarnings);
+        emit(
+            EVENT_CALL_QUALITY_REPORT,
+            () -> {
+                JSObject data = new JSObject();
+                data.put("callSid", call.getSid());
+                data.put("profile", tracking.profile);
+                data.put("identity", tracking.identity);
+                data.put("network", tracking.network);
+                data.put("qualityWarnings", hadQualityWarnings);
+                return data;
+            }
+        );
+    }
+
     private Call.Listener callListener() {
         return new Call.Listener() {
             /*
@@ -307,37 +952,52 @@ public class TwilioVoicePlugin extends Plugin {
              */
             @Override
             public void onRinging(@NonNull Call call) {
-                Log.d(TAG, "Ringing");
+                VoiceLog.d(TAG, "Ringing");
             }
 
             @Override
             public void onConnectFailure(@NonNull Call call, @NonNull CallException error) {
-                Log.d(TAG, "Connect failure");
-                String message = String.format(Locale.US, "Call Error: %d, %s", error.getErrorCode(), error.getMessage());
-                Log.e(TAG, message);
+                VoiceLog.d(TAG, "Connect failure");
+                VoiceLog.e(TAG, "Call Error: %d, %s", error.getErrorCode(), error.getMessage());
+                CallWakeLockManager.getInstance(getContext()).releaseCall(call.getSid());
+                finishCallTracking(call);
             }
 
             @Override
             public void onConnected(@NonNull Call call) {
-                Log.d(TAG, "Connected");
+                VoiceLog.d(TAG, "Connected");
+                CallWakeLockManager.getInstance(getContext()).acquireProximity(call.getSid());
             }
 
             @Override
             public void onReconnecting(@NonNull Call call, @NonNull CallException callException) {
-                Log.d(TAG, "onReconnecting");
+                VoiceLog.d(TAG, "onReconnecting");
             }
 
             @Override
             public void onReconnected(@NonNull Call call) {
-                Log.d(TAG, "onReconnected");
+                VoiceLog.d(TAG, "onReconnected");
+            }
+
+            @Override
+            public void onCallQualityWarningsChanged(
+                @NonNull Call call,
+                @NonNull Set<Call.CallQualityWarning> currentWarnings,
+                @NonNull Set<Call.CallQualityWarning> previousWarnings
+            ) {
+                CallTracking tracking = trackedCalls.get(call);
+                if (tracking != null && !currentWarnings.isEmpty()) {
+                    tracking.hadQualityWarnings = true;
+                }
             }
 
             @Override
             public void onDisconnected(@NonNull Call call, CallException error) {
-                Log.d(TAG, "Disconnected");
+                VoiceLog.d(TAG, "Disconnected");
+                CallWakeLockManager.getInstance(getContext()).releaseCall(call.getSid());
+                finishCallTracking(call);
                 if (error != null) {
-                    String message = String.format(Locale.US, "Call Error: %d, %s", error.getErrorCode(), error.getMessage());
-                    Log.e(TAG, message);
+                    VoiceLog.e(TAG, "Call Error: %d, %s", error.getErrorCode(), error.getMessage());
                 }
             }
         };
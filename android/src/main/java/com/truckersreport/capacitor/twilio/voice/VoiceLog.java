@@ -0,0 +1,318 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import android.content.Context;
+import android.util.Log;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Level-gated logger for the call path.
+ *
+ * Entries are stored unformatted in a fixed-size lock-free ring buffer, the
+ * message is only formatted when it is mirrored to logcat or exported. Args
+ * other than strings, numbers, characters and booleans are converted with
+ * `String.valueOf` when logged, so entries never hold live references.
+ * Don't pass tokens or push payloads, they would end up in exported logs. Logcat
+ * mirroring follows `Log.isLoggable(LOGCAT_TAG, level)`, so debug output can be
+ * turned on with `adb shell setprop log.tag.TwilioVoice DEBUG`.
+ *
+ * An optional file sink appends the buffer to gzip files on a background thread.
+ */
+public final class VoiceLog {
+
+    public static final String LOGCAT_TAG = "TwilioVoice";
+    private static final int CAPACITY = 2048;
+    private static final int MASK = CAPACITY - 1;
+    private static final String SINK_DIR = "twilio_voice_logs";
+    private static final long SINK_INTERVAL_MS = 10 * 1000;
+    private static final long SINK_MAX_FILE_BYTES = 512 * 1024;
+
+    private static final AtomicReferenceArray<Entry> buffer = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong sequence = new AtomicLong();
+    private static volatile int minLevel = Log.DEBUG;
+
+    private static ScheduledExecutorService sinkExecutor;
+    private static ScheduledFuture<?> sinkTask;
+    private static volatile File sinkDir;
+    private static long sinkSequence;
+
+    private static final class Entry {
+
+        final long seq;
+        final long time;
+        final int level;
+        final String tag;
+        final String format;
+        final Object[] args;
+        final Throwable throwable;
+
+        Entry(long seq, long time, int level, String tag, String format, Object[] args, Throwable throwable) {
+            this.seq = seq;
+            this.time = time;
+            this.level = level;
+            this.tag = tag;
+            this.format = format;
+            this.args = args;
+            this.throwable = throwable;
+        }
+
+        String message() {
+            String message = format;
+            if (args != null && args.length > 0) {
+                try {
+                    message = String.format(Locale.US, format, args);
+                } catch (IllegalFormatException e) {
+                    message = format;
+                }
+            }
+            if (throwable != null) {
+                message = message + ": " + throwable;
+            }
+            return message;
+        }
+    }
+
+    private VoiceLog() {}
+
+    public static void v(String tag, String format, Object... args) {
+        log(Log.VERBOSE, tag, null, format, args);
+    }
+
+    public static void d(String tag, String format, Object... args) {
+        log(Log.DEBUG, tag, null, format, args);
+    }
+
+    public static void i(String tag, String format, Object... args) {
+        log(Log.INFO, tag, null, format, args);
+    }
+
+    public static void w(String tag, String format, Object... args) {
+        log(Log.WARN, tag, null, format, args);
+    }
+
+    public static void e(String tag, String format, Object... args) {
+        log(Log.ERROR, tag, null, format, args);
+    }
+
+    public static void e(String tag, Throwable throwable, String format, Object... args) {
+        log(Log.ERROR, tag, throwable, format, args);
+    }
+
+    /**
+     * Entries below this level are dropped without being stored.
+     * @param level one of the {@link Log} levels
+     */
+    public static void setMinLevel(int level) {
+        minLevel = level;
+    }
+
+    public static int parseLevel(String level, int defaultLevel) {
+        if (level == null) {
+            return defaultLevel;
+        }
+        switch (level.toLowerCase(Locale.US)) {
+            case "verbose":
+                return Log.VERBOSE;
+            case "debug":
+                return Log.DEBUG;
+            case "info":
+                return Log.INFO;
+            case "warn":
+                return Log.WARN;
+            case "error":
+                return Log.ERROR;
+            default:
+                return defaultLevel;
+        }
+    }
+
+    private static void log(int level, String tag, Throwable throwable, String format, Object[] args) {
+        if (level < minLevel) {
+            return;
+        }
+        long seq = sequence.getAndIncrement();
+        Entry entry = new Entry(seq, System.currentTimeMillis(), level, tag, format, snapshotArgs(args), throwable);
+        buffer.set((int) (seq & MASK), entry);
+        if (Log.isLoggable(LOGCAT_TAG, level)) {
+            Log.println(level, tag, throwable != null ? entry.message() + '\n' + Log.getStackTraceString(throwable) : entry.message());
+        }
+    }
+
+    private static Object[] snapshotArgs(Object[] args) {
+        if (args == null || args.length == 0) {
+            return args;
+        }
+        Object[] copy = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            copy[i] = isImmutable(arg) ? arg : String.valueOf(arg);
+        }
+        return copy;
+    }
+
+    /** Numbers and characters are kept so `%d`, `%f` and `%c` formats still apply. */
+    private static boolean isImmutable(Object arg) {
+        return arg == null || arg instanceof String || arg instanceof Boolean || arg instanceof Number || arg instanceof Character;
+    }
+
+    /**
+     * Snapshot of the buffered entries newer than the given time, oldest first.
+     */
+    private static List<Entry> snapshot(long sinceSeq, long sinceTime) {
+        long end = sequence.get();
+        long start = Math.max(Math.max(sinceSeq, end - CAPACITY), 0);
+        List<Entry> entries = new ArrayList<>();
+        for (long seq = start; seq < end; seq++) {
+            Entry entry = buffer.get((int) (seq & MASK));
+            // The slot may be empty or already overwritten by a newer entry
+            if (entry != null && entry.seq == seq && entry.time >= sinceTime) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Export the entries of the last minutes, formatted.
+     * @param minutes
+     * @param maxEntries keep only the newest entries past this count
+     */
+    public static JSObject export(int minutes, int maxEntries) {
+        maxEntries = Math.max(maxEntries, 0);
+        List<Entry> entries = snapshot(0, System.currentTimeMillis() - minutes * 60L * 1000L);
+        if (entries.size() > maxEntries) {
+            entries = entries.subList(entries.size() - maxEntries, entries.size());
+        }
+        JSArray items = new JSArray();
+        for (Entry entry : entries) {
+            JSObject item = new JSObject();
+            item.put("time", entry.time);
+            item.put("level", levelName(entry.level));
+            item.put("tag", entry.tag);
+            item.put("message", entry.message());
+            items.put(item);
+        }
+        JSObject ret = new JSObject();
+        ret.put("entries", items);
+        JSArray files = new JSArray();
+        for (File file : sinkFiles()) {
+            files.put(file.getAbsolutePath());
+        }
+        ret.put("files", files);
+        return ret;
+    }
+
+    /**
+     * Start or stop appending the buffer to gzip files in the app's files dir.
+     * @param context
+     * @param enabled
+     */
+    public static synchronized void setFileSinkEnabled(Context context, boolean enabled) {
+        if (enabled && sinkTask == null) {
+            sinkDir = new File(context.getApplicationContext().getFilesDir(), SINK_DIR);
+            if (sinkExecutor == null) {
+                sinkExecutor = Executors.newSingleThreadScheduledExecutor();
+            }
+            sinkSequence = sequence.get();
+            sinkTask = sinkExecutor.scheduleWithFixedDelay(VoiceLog::flushToFile, SINK_INTERVAL_MS, SINK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } else if (!enabled && sinkTask != null) {
+            sinkTask.cancel(false);
+            sinkTask = null;
+            sinkExecutor.execute(VoiceLog::flushToFile);
+        }
+    }
+
+    private static void flushToFile() {
+        File dir;
+        long since;
+        synchronized (VoiceLog.class) {
+            dir = sinkDir;
+            since = sinkSequence;
+        }
+        List<Entry> entries = snapshot(since, 0);
+        if (entries.isEmpty() || dir == null || (!dir.exists() && !dir.mkdirs())) {
+            return;
+        }
+        File current = new File(dir, "voice.log.gz");
+        if (current.length() > SINK_MAX_FILE_BYTES) {
+            File previous = new File(dir, "voice.1.log.gz");
+            if (!previous.delete() && previous.exists()) {
+                Log.w(LOGCAT_TAG, "Failed to delete old log file");
+            }
+            if (!current.renameTo(previous)) {
+                Log.w(LOGCAT_TAG, "Failed to rotate log file");
+            }
+        }
+        // Each flush appends a gzip member, concatenated members read back as one stream
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(current, true)), StandardCharsets.UTF_8)) {
+            for (Entry entry : entries) {
+                writer
+                    .append(dateFormat.format(new Date(entry.time)))
+                    .append(' ')
+                    .append(levelName(entry.level))
+                    .append(' ')
+                    .append(entry.tag)
+                    .append(": ")
+                    .append(entry.message())
+                    .append('\n');
+            }
+        } catch (IOException e) {
+            Log.e(LOGCAT_TAG, "Failed to write log file", e);
+            return;
+        }
+        synchronized (VoiceLog.class) {
+            sinkSequence = entries.get(entries.size() - 1).seq + 1;
+        }
+    }
+
+    private static List<File> sinkFiles() {
+        File dir = sinkDir;
+        if (dir == null) {
+            return Collections.emptyList();
+        }
+        List<File> files = new ArrayList<>();
+        for (String name : new String[] { "voice.1.log.gz", "voice.log.gz" }) {
+            File file = new File(dir, name);
+            if (file.exists()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static String levelName(int level) {
+        switch (level) {
+            case Log.VERBOSE:
+                return "verbose";
+            case Log.DEBUG:
+                return "debug";
+            case Log.INFO:
+                return "info";
+            case Log.WARN:
+                return "warn";
+            default:
+                return "error";
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CallerDirectoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "directory.bin");
+    }
+
+    private static Map<String, String> entries(String... identityNamePairs) {
+        Map<String, String> entries = new HashMap<>();
+        for (int i = 0; i < identityNamePairs.length; i += 2) {
+            entries.put(identityNamePairs[i], identityNamePairs[i + 1]);
+        }
+        return entries;
+    }
+
+    @Test
+    public void lookupIgnoresClientPrefix() {
+        CallerDirectory directory = new CallerDirectory(file, 10);
+        directory.putAll(entries("client:alice", "Alice", "bob", "Bob"), false);
+
+        assertEquals("Alice", directory.get("alice"));
+        assertEquals("Alice", directory.get("client:alice"));
+        assertEquals("Bob", directory.get("client:bob"));
+        assertEquals("Bob", directory.get("bob"));
+        assertNull(directory.get("carol"));
+        assertNull(directory.get(null));
+    }
+
+    @Test
+    public void mergeKeepsExistingEntries() {
+        CallerDirectory directory = new CallerDirectory(file, 10);
+        directory.putAll(entries("alice", "Alice", "bob", "Bob"), false);
+        directory.putAll(entries("bob", "Robert", "carol", "Carol"), false);
+
+        assertEquals(3, directory.size());
+        assertEquals("Alice", directory.get("alice"));
+        assertEquals("Robert", directory.get("bob"));
+        assertEquals("Carol", directory.get("carol"));
+    }
+
+    @Test
+    public void replaceDropsExistingEntries() {
+        CallerDirectory directory = new CallerDirectory(file, 10);
+        directory.putAll(entries("alice", "Alice", "bob", "Bob"), false);
+        directory.putAll(entries("carol", "Carol"), true);
+
+        assertEquals(1, directory.size());
+        assertNull(directory.get("alice"));
+        assertNull(directory.get("bob"));
+        assertEquals("Carol", directory.get("carol"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedPastMaxEntries() {
+        CallerDirectory directory = new CallerDirectory(file, 3);
+        directory.putAll(entries("alice", "Alice", "bob", "Bob"), false);
+        directory.putAll(entries("carol", "Carol"), false);
+        // Looking alice up moves her to the current generation, bob is now the oldest
+        assertEquals("Alice", directory.get("alice"));
+        directory.putAll(entries("dave", "Dave"), false);
+
+        assertEquals(3, directory.size());
+        assertNull(directory.get("bob"));
+        assertEquals("Alice", directory.get("alice"));
+        assertEquals("Carol", directory.get("carol"));
+        assertEquals("Dave", directory.get("dave"));
+    }
+
+    @Test
+    public void readsBackWhatWasPersisted() throws Exception {
+        CallerDirectory directory = new CallerDirectory(file, 10);
+        directory.putAll(entries("client:alice", "Alice", "bob", "B\u00f3b", "carol", ""), false);
+        directory.awaitPersisted();
+
+        CallerDirectory reloaded = new CallerDirectory(file, 10);
+        reloaded.load();
+        assertEquals(3, reloaded.size());
+        assertEquals("Alice", reloaded.get("alice"));
+        assertEquals("B\u00f3b", reloaded.get("bob"));
+        assertEquals("", reloaded.get("carol"));
+    }
+
+    @Test
+    public void clearIsPersisted() throws Exception {
+        CallerDirectory directory = new CallerDirectory(file, 10);
+        directory.putAll(entries("alice", "Alice"), false);
+        directory.clear();
+        directory.awaitPersisted();
+
+        CallerDirectory reloaded = new CallerDirectory(file, 10);
+        reloaded.load();
+        assertEquals(0, reloaded.size());
+    }
+
+    @Test
+    public void corruptFileIsDiscarded() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            // Current version followed by a negative entry count
+            out.write(new byte[] { 0, 0, 0, 2, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0, 0, 0, 1 });
+        }
+
+        CallerDirectory directory = new CallerDirectory(file, 10);
+        directory.load();
+        assertEquals(0, directory.size());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void truncatedFileIsDiscarded() throws Exception {
+        CallerDirectory directory = new CallerDirectory(file, 10);
+        directory.putAll(entries("alice", "Alice", "bob", "Bob"), false);
+        directory.awaitPersisted();
+        byte[] truncated = Arrays.copyOf(Files.readAllBytes(file.toPath()), (int) file.length() - 3);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(truncated);
+        }
+
+        CallerDirectory reloaded = new CallerDirectory(file, 10);
+        reloaded.load();
+        assertEquals(0, reloaded.size());
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,115 @@
+package com.truckersreport.capacitor.twilio.voice;
+
+import static org.junit.Assert.*;
+
+import com.getcapacitor.JSObject;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventRetentionTest {
+
+    private static final String EVENT = "callInvite";
+
+    private long now;
+    private EventRetention retention;
+
+    @Before
+    public void setUp() {
+        now = 1000;
+        retention = new EventRetention(() -> now);
+    }
+
+    @Test
+    public void eventsWithoutPolicyAreNotRetained() {
+        assertFalse(retention.retains(EVENT));
+        retention.retain(EVENT, new JSObject());
+
+        assertTrue(retention.drain(EVENT).isEmpty());
+        assertEquals(0, retention.getDropped(EVENT));
+    }
+
+    @Test
+    public void countOverflowDropsOldestFirst() {
+        retention.setPolicy(EVENT, new EventRetention.Policy(2, 0));
+        JSObject first = new JSObject();
+        JSObject second = new JSObject();
+        JSObject third = new JSObject();
+        retention.retain(EVENT, first);
+        retention.retain(EVENT, second);
+        retention.retain(EVENT, third);
+
+        List<JSObject> events = retention.drain(EVENT);
+        assertEquals(2, events.size());
+        assertSame(second, events.get(0));
+        assertSame(third, events.get(1));
+        assertEquals(1, retention.getDropped(EVENT));
+    }
+
+    @Test
+    public void ttlExpiresAtDrainTime() {
+        retention.setPolicy(EVENT, new EventRetention.Policy(5, 100));
+        JSObject old = new JSObject();
+        JSObject recent = new JSObject();
+        retention.retain(EVENT, old);
+        now += 60;
+        retention.retain(EVENT, recent);
+        now += 50;
+
+        List<JSObject> events = retention.drain(EVENT);
+        assertEquals(1, events.size());
+        assertSame(recent, events.get(0));
+        assertEquals(1, retention.getDropped(EVENT));
+    }
+
+    @Test
+    public void drainEmptiesTheQueue() {
+        retention.setPolicy(EVENT, new EventRetention.Policy(5, 0));
+        retention.retain(EVENT, new JSObject());
+
+        assertEquals(1, retention.drain(EVENT).size());
+        assertTrue(retention.drain(EVENT).isEmpty());
+        assertEquals(0, retention.getDropped(EVENT));
+    }
+
+    @Test
+    public void zeroTtlNeverExpires() {
+        retention.setPolicy(EVENT, new EventRetention.Policy(5, 0));
+        JSObject event = new JSObject();
+        retention.retain(EVENT, event);
+        now += 24L * 60 * 60 * 1000;
+
+        List<JSObject> events = retention.drain(EVENT);
+        assertEquals(1, events.size());
+        assertSame(event, events.get(0));
+        assertEquals(0, retention.getDropped(EVENT));
+    }
+
+    @Test
+    public void setPolicyShrinksExistingQueue() {
+        retention.setPolicy(EVENT, new EventRetention.Policy(5, 0));
+        JSObject[] events = new JSObject[4];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = new JSObject();
+            retention.retain(EVENT, events[i]);
+        }
+        retention.setPolicy(EVENT, new EventRetention.Policy(1, 0));
+        assertEquals(3, retention.getDropped(EVENT));
+
+        List<JSObject> drained = retention.drain(EVENT);
+        assertEquals(1, drained.size());
+        assertSame(events[3], drained.get(0));
+    }
+
+    @Test
+    public void setPolicyToNoRetentionDropsEverything() {
+        retention.setPolicy(EVENT, new EventRetention.Policy(5, 0));
+        retention.retain(EVENT, new JSObject());
+        retention.retain(EVENT, new JSObject());
+        retention.setPolicy(EVENT, new EventRetention.Policy(0, 0));
+
+        assertFalse(retention.retains(EVENT));
+        assertTrue(retention.drain(EVENT).isEmpty());
+        assertEquals(2, retention.getDropped(EVENT));
+    }
+}
@@ -6,7 +6,108 @@ export interface TwilioVoicePlugin {
     registrationToken: string;
     userId: string;
     windowToken: string;
+    /**
+     * The twilio client identity of the access token.
+     *
+     * Falls back to `userId` when omitted, in which case incoming calls are
+     * only routed to this registration if `userId` is the client identity.
+     * A warning is logged when the fallback is used.
+     */
+    identity?: string;
   }): Promise<void>;
+
+  /**
+   * Register several twilio identities against the same FCM token.
+   *
+   * Registrations run in parallel, each one triggers a `'twilioRegistration'`
+   * or `'twilioRegistrationError'` event carrying its `identity`. The last
+   * identity becomes the default one used by `callApplicant()`.
+   *
+   * Only available on Android.
+   */
+  registerTwilioIdentities(options: {
+    registrationToken: string;
+    identities: TwilioIdentity[];
+  }): Promise<void>;
+
+  /**
+   * Unregister twilio identities from the FCM token.
+   *
+   * Only available on Android.
+   */
+  unregisterTwilioIdentities(options: {
+    registrationToken: string;
+    identities: string[];
+  }): Promise<void>;
+
+  /**
+   * List the twilio identities registered on this device.
+   *
+   * Only available on Android.
+   */
+  getTwilioIdentities(): Promise<{ identities: RegisteredTwilioIdentity[] }>;
+
+  /**
+   * Start an outgoing call to an applicant.
+   *
+   * `identity` picks the registered identity to call from, the default
+   * identity is used when omitted.
+   */
+  callApplicant(options: {
+    applicantId: string;
+    applicantName?: string;
+    identity?: string;
+
+    /**
+     * Name of the connection profile to use. When omitted the profile is
+     * picked from the current network type and its recent call quality.
+     */
+    profile?: string;
+  }): Promise<{
+    /**
+     * The identity the call was placed from.
+     *
+     * Only available on Android.
+     */
+    identity?: string;
+
+    /**
+     * The connection profile applied to the call.
+     *
+     * Only available on Android.
+     */
+    profile?: ConnectionProfile;
+
+    /**
+     * Transport of the network the call was placed on.
+     *
+     * Only available on Android.
+     */
+    transport?: string;
+  }>;
+
+  /**
+   * Add a connection profile, or override the built-in `high`, `balanced`,
+   * `low` and `pcmu` profiles. Fields that are left out keep the value of the
+   * existing profile with the same name. Rejects unknown codecs and ICE
+   * transport policies.
+   *
+   * Only available on Android.
+   */
+  setConnectionProfile(
+    profile: Partial<ConnectionProfile> & { name: string },
+  ): Promise<ConnectionProfile>;
+
+  /**
+   * List the connection profiles and the one `callApplicant()` would pick on
+   * the current network.
+   *
+   * Only available on Android.
+   */
+  getConnectionProfiles(): Promise<{
+    profiles: ConnectionProfile[];
+    selected: string;
+  }>;
   /**
    * Register the app to receive push notifications.
    *
@@ -44,6 +145,142 @@ export interface TwilioVoicePlugin {
    */
   requestPermissions(): Promise<PermissionStatus>;
 
+  /**
+   * Bulk load caller identity to applicant name entries.
+   *
+   * Incoming call notifications resolve the caller name from this directory
+   * natively, so it works while the app is not running. When the caller is
+   * not found the `applicantName`, `callerName` or `name` custom parameter of
+   * the call is used. The directory is persisted on the device and keeps up to
+   * 100000 entries, evicting the least recently used ones. When the app is
+   * not running, incoming calls ring through a native notification that uses
+   * this directory.
+   *
+   * Only available on Android.
+   */
+  loadCallerDirectory(options: {
+    /**
+     * Caller identity (with or without the `client:` prefix) to display name.
+     */
+    entries: { [identity: string]: string };
+
+    /**
+     * Drop the existing entries before loading.
+     *
+     * @default false
+     */
+    replace?: boolean;
+  }): Promise<{ size: number }>;
+
+  /**
+   * Remove every entry from the caller directory.
+   *
+   * Only available on Android.
+   */
+  clearCallerDirectory(): Promise<void>;
+
+  /**
+   * Set how many events of a type are kept, and for how long, while no
+   * listener is registered for it. Retained events are delivered when a
+   * listener is added. A `maxCount` of `0` disables retention, a `ttlMs` of
+   * `0` keeps events until they are delivered or evicted by count.
+   *
+   * Defaults: `registration`/`registrationError` keep the latest event,
+   * `pushNotificationReceived` keeps 10 for 5 minutes,
+   * `pushNotificationActionPerformed` keeps 5 for 10 minutes and
+   * `twilioRegistration`/`twilioRegistrationError` keep 10. Other events are
+   * not retained.
+   *
+   * Only available on Android.
+   */
+  setEventRetentionPolicy(options: {
+    eventName: string;
+    maxCount: number;
+    ttlMs?: number;
+  }): Promise<void>;
+
+  /**
+   * Get the number of retained and dropped events per event type.
+   *
+   * Only available on Android.
+   */
+  getEventRetentionStats(): Promise<EventRetentionStats>;
+
+  /**
+   * Test whether the current network can carry a call, using the Voice SDK
+   * preflight test.
+   *
+   * Results are cached per network (transport plus Wi-Fi SSID or carrier), a
+   * cached result younger than `maxAgeMs` is returned without running a new
+   * test. When the SSID or carrier can't be read, results are only cached for
+   * the current connection, or not at all before Android 6. Progress is reported through `'preflightProgress'` events.
+   *
+   * Only available on Android.
+   */
+  runPreflight(options?: {
+    /**
+     * Access token used for the test, defaults to the token of `identity`.
+     */
+    accessToken?: string;
+
+    /**
+     * Registered identity whose token is used, defaults to the default identity.
+     */
+    identity?: string;
+
+    /**
+     * Maximum age of a cached result.
+     *
+     * @default 600000
+     */
+    maxAgeMs?: number;
+
+    /**
+     * Ignore the cache and always run a new test.
+     *
+     * @default false
+     */
+    force?: boolean;
+  }): Promise<PreflightResult>;
+
+  /**
+   * Export the plugin diagnostics logged in the last minutes.
+   *
+   * Diagnostics are kept in a fixed-size in-memory buffer, older entries are
+   * overwritten. When the file sink is enabled, `files` lists the gzip log
+   * files on the device.
+   *
+   * Only available on Android.
+   */
+  exportLogs(options?: {
+    /**
+     * @default 10
+     */
+    minutes?: number;
+    maxEntries?: number;
+  }): Promise<{ entries: LogEntry[]; files: string[] }>;
+
+  /**
+   * Set the minimum level of stored diagnostics and enable or disable the
+   * compressed file sink.
+   *
+   * Only available on Android.
+   */
+  configureLogging(options: {
+    /**
+     * @default 'debug'
+     */
+    level?: LogLevel;
+    fileSink?: boolean;
+  }): Promise<void>;
+
+  /**
+   * Get wake lock held-time and wake-count for recent calls.
+   *
+   * Only available on Android.
+   */
+  getWakeLockStats(): Promise<WakeLockStats>;
+
   /**
    * Called when the push notification registration finishes without problems.
    *
@@ -116,6 +353,34 @@ export interface TwilioVoicePlugin {
     listenerFunc: (token: Token) => void,
   ): Promise<PluginListenerHandle> & PluginListenerHandle;
 
+  /**
+   * Called while `runPreflight()` is running.
+   */
+  addListener(
+    eventName: 'preflightProgress',
+    listenerFunc: (progress: PreflightProgress) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
+  /**
+   * Called when an incoming call invite is accepted, with the registered
+   * identity it was routed to.
+   *
+   * Only available on Android.
+   */
+  addListener(
+    eventName: 'callInvite',
+    listenerFunc: (invite: CallInviteEvent) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
+  /**
+   * Called when a call ends with the connection profile it used and whether
+   * it raised call quality warnings.
+   */
+  addListener(
+    eventName: 'callQualityReport',
+    listenerFunc: (report: CallQualityReport) => void,
+  ): Promise<PluginListenerHandle> & PluginListenerHandle;
+
   /**
    * Remove all native listeners for this plugin.
    *
@@ -124,6 +389,216 @@ export interface TwilioVoicePlugin {
   removeAllListeners(): Promise<void>;
 }
 
+export interface TwilioIdentity {
+  /**
+   * The twilio client identity of the access token, incoming calls to
+   * `client:<identity>` are routed to this registration.
+   */
+  identity: string;
+  accessToken: string;
+  userId: string;
+  windowToken: string;
+}
+
+export interface RegisteredTwilioIdentity {
+  identity: string;
+  userId: string;
+
+  /**
+   * Whether twilio confirmed the registration.
+   */
+  registered: boolean;
+}
+
+export interface EventRetentionStat {
+  eventName: string;
+
+  /**
+   * Events currently waiting for a listener.
+   */
+  retained: number;
+
+  /**
+   * Events discarded because of the max count or TTL.
+   */
+  dropped: number;
+  maxCount: number;
+  ttlMs: number;
+}
+
+export interface EventRetentionStats {
+  events: EventRetentionStat[];
+  totalRetained: number;
+}
+
+export interface ConnectionProfile {
+  name: string;
+
+  /**
+   * Audio codecs in order of preference.
+   */
+  codecs: ('opus' | 'pcmu')[];
+
+  /**
+   * Opus max average bitrate in bps, `0` keeps the codec default.
+   */
+  opusMaxAverageBitrate: number;
+  iceTransportPolicy: 'all' | 'relay';
+
+  /**
+   * Twilio edge location, e.g. `ashburn`. When omitted calls use the
+   * default `roaming` edge.
+   */
+  edge?: string;
+}
+
+export interface CallInviteEvent {
+  callSid: string;
+  from: string;
+
+  /**
+   * The client identity the invite was sent to.
+   */
+  identity?: string;
+
+  /**
+   * Whether `identity` is registered on this device.
+   */
+  registered: boolean;
+}
+
+export interface CallQualityReport {
+  callSid?: string;
+
+  /**
+   * Name of the connection profile, not set for incoming calls.
+   */
+  profile?: string;
+
+  /**
+   * The identity the call was placed from or routed to.
+   */
+  identity?: string;
+
+  /**
+   * The network the call was placed on, transport and SSID or carrier.
+   * Only the transport when the network can't be identified, e.g. the SSID
+   * is hidden without location permission.
+   */
+  network: string;
+  qualityWarnings: boolean;
+}
+
+export interface PreflightProgress {
+  state: 'connected' | 'sample' | 'qualityWarning';
+  jitter?: number;
+  rtt?: number;
+  packetLoss?: number;
+  mos?: number;
+}
+
+export interface PreflightResult {
+  callSid: string;
+  callQuality?: string;
+
+  /**
+   * Average jitter in milliseconds.
+   */
+  jitter: number;
+  maxJitter: number;
+
+  /**
+   * Average round trip time in milliseconds.
+   */
+  rtt: number;
+  maxRtt: number;
+
+  /**
+   * Average fraction of packets lost.
+   */
+  packetLoss: number;
+  samples: number;
+  turnRequired: boolean;
+
+  /**
+   * Type of the selected local ICE candidate, e.g. `host`, `srflx` or `relay`.
+   */
+  iceCandidateType?: string;
+  transport: 'wifi' | 'cellular' | 'ethernet' | 'other' | 'none';
+
+  /**
+   * Wi-Fi SSID or cellular carrier when known.
+   */
+  network?: string;
+
+  /**
+   * Whether the result came from the cache.
+   */
+  cached: boolean;
+  ageMs: number;
+}
+
+export type LogLevel = 'verbose' | 'debug' | 'info' | 'warn' | 'error';
+
+export interface LogEntry {
+  /**
+   * Milliseconds since epoch.
+   */
+  time: number;
+  level: LogLevel;
+  tag: string;
+  message: string;
+}
+
+export interface CallWakeLockStats {
+  /**
+   * The sid of the call the wake locks were held for.
+   */
+  callSid: string;
+
+  /**
+   * Number of times a wake lock was acquired for this call.
+   */
+  wakeCount: number;
+
+  /**
+   * Milliseconds the partial wake lock was held while the invite was pending.
+   */
+  partialHeldMs: number;
+
+  /**
+   * Milliseconds the proximity wake lock was held while the call was connected.
+   */
+  proximityHeldMs: number;
+}
+
+export interface WakeLockStats {
+  /**
+   * Per call accounting, oldest first.
+   */
+  calls: CallWakeLockStats[];
+
+  /**
+   * Sum of all wake lock held time in milliseconds.
+   */
+  totalHeldMs: number;
+
+  /**
+   * Sum of all wake lock acquisitions.
+   */
+  totalWakeCount: number;
+
+  /**
+   * Whether the invite partial wake lock is currently held.
+   */
+  inviteWakeLockHeld: boolean;
+
+  /**
+   * Whether the proximity wake lock is currently held.
+   */
+  proximityWakeLockHeld: boolean;
+}
+
 export interface PushNotificationSchema {
   /**
    * The notification title.
@@ -248,6 +723,13 @@ export interface ActionPerformed {
 }
 
 export interface Token {
+  /**
+   * The twilio identity the registration belongs to.
+   *
+   * Only set on `'twilioRegistration'` events.
+   */
+  identity?: string;
+
   /**
    * On iOS it contains the APNS token.
    * On Android it contains the FCM token.